@@ -0,0 +1,200 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This AnalyzerBenchmark class measures the PredicateAnalyzer on synthetic run logs (see SyntheticRunLogs) of 10^4
+ * records, then 10^5, and so on up to the given maximum, and checks that it still finds the planted bugs. For each
+ * size it reports:
+ *
+ *      read        time to read and count every log, which is parsing and counting in one pass, and the records
+ *                  and MB read per second
+ *      aggregate   time to compute the results, the compound predicates and the thresholds from the counters
+ *      peak heap   the sum of the peak use of each heap memory pool
+ *      rows        the distinct records kept for CompoundPredicates
+ *      values      the distinct values or buckets kept for synthetic.latency, see ThresholdSearch
+ *      bugs        how many of the synthetic.bugs predicates with the highest Increase are planted bugs
+ *      load        the best threshold found for synthetic.load, which should be near synthetic.loadThreshold
+ *      latency     the best threshold found for synthetic.latency, which should be near synthetic.latencyThreshold
+ *
+ * Each size is analyzed in its own child JVM, so the peak heap of one size does not include the garbage of the last.
+ * The synthetic.* and analyzer.* properties are passed on to it. The logs are written to a temporary folder that is
+ * deleted afterwards; 10^8 records take about 5 GB of disk.
+ *
+ * synthetic.latency has a different value in nearly every record, so the peak heap always includes the bounded
+ * buckets of a continuous variable. By default the records come from a few profiles, as real logs do; run with
+ * -Dsynthetic.profiles=0 to make nearly every record distinct as well. The table of distinct records then fills up
+ * to analyzer.maxRows and predicates are left out of it (see CompoundPredicates), so the peak heap stays bounded.
+ *
+ * Usage: java AnalyzerBenchmark [maxRecords]
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class AnalyzerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("--child")) {
+            runChild(new File(args[1]), Long.parseLong(args[2]));
+            return;
+        }
+        long maxRecords = args.length > 0 ? Long.parseLong(args[0]) : 1000000L;
+
+        System.out.printf("%12s %10s %10s %12s %10s %12s %14s %10s %8s %6s %8s %10s%n", "records", "MB", "read ms",
+                "records/s", "MB/s", "aggregate ms", "peak heap MB", "rows", "values", "bugs", "load", "latency");
+        for (long records = 10000; records <= maxRecords; records *= 10) {
+            Path folder = Files.createTempDirectory("analyzer-benchmark-");
+            try {
+                SyntheticRunLogs.generate(folder.toFile(), records);
+                String result = launchChild(folder, records);
+                if (result == null) {
+                    System.out.printf("%12d %10s%n", records, "failed");
+                    continue;
+                }
+                String[] parts = result.split(" ");
+                double megabytes = Long.parseLong(parts[1]) / (1024.0 * 1024.0);
+                double readSeconds = Long.parseLong(parts[2]) / 1e9;
+                System.out.printf("%12d %10.1f %10.0f %12.0f %10.1f %12.0f %14.1f %10s %8s %6s %8s %10s%n", records,
+                        megabytes, readSeconds * 1000, records / readSeconds, megabytes / readSeconds,
+                        Long.parseLong(parts[3]) / 1e6, Long.parseLong(parts[4]) / (1024.0 * 1024.0), parts[5],
+                        parts[6], parts[7] + "/" + SyntheticRunLogs.BUGS, parts[8], parts[9]);
+            } finally {
+                File[] logs = folder.toFile().listFiles();
+                if (logs != null) {
+                    for (File log : logs) {
+                        log.delete();
+                    }
+                }
+                Files.deleteIfExists(folder);
+            }
+        }
+    }
+
+    /**
+     * Analyzes the logs in a child JVM and returns its RESULT line, or null if it failed.
+     */
+    private static String launchChild(Path folder, long records) throws IOException, InterruptedException {
+        File output = folder.resolve("output.txt").toFile();
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("synthetic.") || name.startsWith("analyzer.")) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("AnalyzerBenchmark");
+        command.add("--child");
+        command.add(folder.toString());
+        command.add(Long.toString(records));
+
+        Process process = new ProcessBuilder(command)
+                .directory(folder.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(output)
+                .start();
+        process.waitFor();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(output))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    return line;
+                }
+            }
+        }
+        System.out.println("Analyzing " + records + " records failed:");
+        Files.lines(output.toPath()).limit(20).forEach(System.out::println);
+        return null;
+    }
+
+    /**
+     * Returns the value of the best "above" threshold found for the variable, or - if there is none.
+     */
+    private static String above(List<ThresholdSearch.Threshold> thresholds, String variable) {
+        for (ThresholdSearch.Threshold threshold : thresholds) {
+            if (threshold.result.predicate.startsWith(variable + " > ")) {
+                String value = threshold.result.predicate.substring(variable.length() + 3);
+                return String.format("%.1f", Double.parseDouble(value));
+            }
+        }
+        return "-";
+    }
+
+    /**
+     * Runs in the child JVM: reads the logs, computes the results and prints what was measured as one RESULT line.
+     */
+    private static void runChild(File folder, long records) throws Exception {
+        File[] logs = folder.listFiles((dir, name) -> name.startsWith("run_") && name.endsWith(".bin"));
+        long bytes = 0;
+        for (File log : logs) {
+            bytes += log.length();
+        }
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+
+        long start = System.nanoTime();
+        PredicateAnalyzer.Counts counts = PredicateAnalyzer.analyze(logs);
+        long readNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<PredicateAnalyzer.Result> results = counts.results();
+        if (CompoundPredicates.TOP > 0) {
+            CompoundPredicates.mine(counts);
+        }
+        List<ThresholdSearch.Threshold> thresholds = ThresholdSearch.search(counts);
+        long aggregateNanos = System.nanoTime() - start;
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peakHeap += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        // The planted bugs should be the predicates with the highest Increase
+        Set<String> bugs = new HashSet<>();
+        for (int bug = 0; bug < SyntheticRunLogs.BUGS; bug++) {
+            bugs.add(SyntheticRunLogs.bugName(bug));
+        }
+        results.sort(Comparator.comparingDouble((PredicateAnalyzer.Result res) -> res.increase).reversed());
+        int found = 0;
+        for (int rank = 0; rank < Math.min(bugs.size(), results.size()); rank++) {
+            if (bugs.contains(results.get(rank).predicate)) found++;
+        }
+
+        int values = 0;
+        for (int variable = 0; variable < counts.samples.size(); variable++) {
+            if (counts.samples.get(variable) != null
+                    && PredicateAnalyzer.variableName(variable).equals(SyntheticRunLogs.LATENCY)) {
+                values = counts.samples.get(variable).distinct;
+            }
+        }
+
+        System.out.println("RESULT " + bytes + " " + readNanos + " " + aggregateNanos + " " + peakHeap + " "
+                + counts.rows.size() + " " + values + " " + found + " " + above(thresholds, SyntheticRunLogs.LOAD)
+                + " " + above(thresholds, SyntheticRunLogs.LATENCY));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This AnalyzerSnapshot class is the state the PredicateAnalyzer keeps between runs: the counters of every log it has
+ * finished reading, and for each of those logs how far it was read and which predicate each ID stood for, so a log
+ * that has grown since can be read on from where it ended.
+ *
+ * A log is only added once it ends with the outcome of its run, so the counters never hold part of a run that is
+ * still being written. Logs are known by their name without the extension, so converting a text log that was
+ * already counted to binary does not count it again.
+ *
+ * While the compound search is on, the snapshot also keeps the table of distinct records that CompoundPredicates
+ * searches, and the predicates left out of it to stay within analyzer.maxRows, so compounds are found over every run
+ * counted so far. It keeps the values of every variable for ThresholdSearch as well, as distinct values or buckets
+ * with the number of failing and successful records that had each.
+ *
+ * The snapshot is written to a temporary file and moved over the old one, so an interrupted save leaves the previous
+ * snapshot in place.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AnalyzerSnapshot {
+    static final int MAGIC = 0x41534E50;
+    static final int VERSION = 5;
+
+    /**
+     * How much of one log has been counted.
+     */
+    static class FileState {
+        // The name of the file that was read, with its extension
+        String file;
+
+        // The number of bytes read, which ends with the outcome of a run
+        long size;
+
+        // The name of each predicate ID of the log, or null for an ID it has not defined
+        String[] predicates;
+
+        // The name of each variable ID of the log, or null for an ID it has not defined
+        String[] variables;
+
+        FileState(String file, long size, String[] predicates, String[] variables) {
+            this.file = file;
+            this.size = size;
+            this.predicates = predicates;
+            this.variables = variables;
+        }
+    }
+
+    PredicateAnalyzer.Counts counts = new PredicateAnalyzer.Counts();
+    Map<String, FileState> files = new HashMap<>();
+
+    static String key(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    /**
+     * Reads the snapshot from the file, or returns an empty one if there is none or it cannot be read.
+     */
+    static AnalyzerSnapshot load(File file) {
+        AnalyzerSnapshot snapshot = new AnalyzerSnapshot();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a snapshot of this version");
+            }
+
+            int predicates = in.readInt();
+            PredicateAnalyzer.Counts counts = snapshot.counts;
+            for (int i = 0; i < predicates; i++) {
+                int predicate = counts.indexOf(in.readUTF());
+                counts.trueCount[predicate] = in.readLong();
+                counts.falseCount[predicate] = in.readLong();
+                counts.trueFail[predicate] = in.readLong();
+                counts.observedFail[predicate] = in.readLong();
+                counts.observedSuccess[predicate] = in.readLong();
+            }
+
+            int leftOut = in.readInt();
+            for (int i = 0; i < leftOut; i++) {
+                PredicateAnalyzer.leaveOutOfRows(counts.indexOf(in.readUTF()));
+            }
+            counts.leftOut = PredicateAnalyzer.leftOutOfRows();
+
+            int rows = in.readInt();
+            for (int i = 0; i < rows; i++) {
+                long[] trueBits = new long[in.readUnsignedByte()];
+                long[] observedBits = new long[trueBits.length];
+                for (int word = 0; word < trueBits.length; word++) {
+                    trueBits[word] = in.readLong();
+                    observedBits[word] = in.readLong();
+                }
+                boolean failed = in.readBoolean();
+                counts.rows.put(new CompoundPredicates.Row(trueBits, observedBits, failed), in.readLong());
+            }
+
+            int variables = in.readInt();
+            for (int i = 0; i < variables; i++) {
+                ThresholdSearch.Samples samples = counts.samples(PredicateAnalyzer.internVariable(in.readUTF()));
+                samples.bucketed = in.readBoolean();
+                int distinct = in.readInt();
+                for (int value = 0; value < distinct; value++) {
+                    samples.addDistinct(in.readDouble(), in.readLong(), in.readLong());
+                }
+            }
+
+            int files = in.readInt();
+            for (int i = 0; i < files; i++) {
+                String name = in.readUTF();
+                long size = in.readLong();
+                String[] names = readNames(in);
+                snapshot.files.put(key(name), new FileState(name, size, names, readNames(in)));
+            }
+            return snapshot;
+        } catch (FileNotFoundException e) {
+            return snapshot;
+        } catch (IOException e) {
+            System.out.println("Could not read " + file + " (" + e.getMessage() + "), starting over");
+            return new AnalyzerSnapshot();
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readUnsignedByte()];
+        for (int id = 0; id < names.length; id++) {
+            names[id] = in.readBoolean() ? in.readUTF() : null;
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeByte(names.length);
+        for (String name : names) {
+            out.writeBoolean(name != null);
+            if (name != null) {
+                out.writeUTF(name);
+            }
+        }
+    }
+
+    void save(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(counts.size);
+            for (int predicate = 0; predicate < counts.size; predicate++) {
+                out.writeUTF(PredicateAnalyzer.predicateName(predicate));
+                out.writeLong(counts.trueCount[predicate]);
+                out.writeLong(counts.falseCount[predicate]);
+                out.writeLong(counts.trueFail[predicate]);
+                out.writeLong(counts.observedFail[predicate]);
+                out.writeLong(counts.observedSuccess[predicate]);
+            }
+
+            // The rows are only kept for the compound search
+            counts.syncRows(false);
+            Map<CompoundPredicates.Row, Long> rows = CompoundPredicates.TOP > 0
+                    ? counts.rows : Collections.emptyMap();
+            long[] leftOut = CompoundPredicates.TOP > 0 ? counts.leftOut : new long[0];
+
+            int leftOutCount = 0;
+            for (long word : leftOut) leftOutCount += Long.bitCount(word);
+            out.writeInt(leftOutCount);
+            for (int word = 0; word < leftOut.length; word++) {
+                for (long bits = leftOut[word]; bits != 0; bits &= bits - 1) {
+                    out.writeUTF(PredicateAnalyzer.predicateName(word * 64 + Long.numberOfTrailingZeros(bits)));
+                }
+            }
+
+            out.writeInt(rows.size());
+            for (Map.Entry<CompoundPredicates.Row, Long> entry : rows.entrySet()) {
+                CompoundPredicates.Row row = entry.getKey();
+                out.writeByte(row.trueBits.length);
+                for (int word = 0; word < row.trueBits.length; word++) {
+                    out.writeLong(row.trueBits[word]);
+                    out.writeLong(row.observedBits[word]);
+                }
+                out.writeBoolean(row.failed);
+                out.writeLong(entry.getValue());
+            }
+
+            int variables = 0;
+            for (ThresholdSearch.Samples samples : counts.samples) {
+                if (samples != null) variables++;
+            }
+            out.writeInt(variables);
+            for (int variable = 0; variable < counts.samples.size(); variable++) {
+                ThresholdSearch.Samples samples = counts.samples.get(variable);
+                if (samples == null) continue;
+                samples.compact();
+                out.writeUTF(PredicateAnalyzer.variableName(variable));
+                out.writeBoolean(samples.bucketed);
+                out.writeInt(samples.distinct);
+                for (int value = 0; value < samples.distinct; value++) {
+                    out.writeDouble(samples.values[value]);
+                    out.writeLong(samples.fails[value]);
+                    out.writeLong(samples.successes[value]);
+                }
+            }
+
+            out.writeInt(files.size());
+            for (FileState state : files.values()) {
+                out.writeUTF(state.file);
+                out.writeLong(state.size);
+                writeNames(out, state.predicates);
+                writeNames(out, state.variables);
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
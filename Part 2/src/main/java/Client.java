@@ -12,31 +12,44 @@
  *
  * The transfer protocol is as follows:
  *
- *  1.) Server sends the TRACE_ID and SPAN_ID to the client.
+ *  1.) Server sends the W3C traceparent header of its connection span to the client as a UTF string.
  *
  *  2.) Client sends the name of the folder to store the transferred files in to the server as a String object.
  *
- *  3.) Client sends an ArrayList object containing the names of the files that will be transferred to the Server.
- *  The server assumes the file transfer order will be the order of names in the ArrayList.
+ *  3.) Client walks the folder tree, including subfolders, and starts sending files as soon as they are found.
+ *  Files smaller than a threshold are packed together into batches, see step 5.
  *
- *  4.) For each file name in the ArrayList:
+ *  4.) For each file sent on its own, the client sends the FRAME_FILE type as a byte, then:
  *      Client side:
- *      i.) The client fully compresses the file data, then encrypts the data
- *      ii.) The client sends the length of the compressed/encrypted data to the Server,
- *          then sends the compressed/encrypted data.
- *      iii.) The client sends the checksum of the unencrypted file to the server, by first sending the length of the
+ *      i.) The client sends the path of the file relative to the folder, using '/' separators, then the traceparent
+ *          header of the file span, both as UTF strings
+ *      ii.) The client streams the file data through compression, then encryption, one chunk at a time
+ *      iii.) The client sends the 64-bit size of the original file, then each chunk of compressed/encrypted data as
+ *          an int length followed by the data. A chunk length of 0 ends the file.
+ *      iv.) The client sends the checksum of the unencrypted file to the server, by first sending the length of the
  *          checksum, followed by the checksum itself.
+ *      v.) The client sends the true and observed bitsets of the file's predicates (trueBits, observedBits), as two
+ *          longs.
  *
  *      Server side:
- *      iv.) The server reads the length of the compressed/encrypted data, then reads the compressed/encrypted data itself.
- *      v.) The server decrypts the data, then decompresses it.
- *      vi.) The server reads the length of the checksum from the client, then reads the checksum itself.
- *      vii.) The server compares the checksum from the client to the checksum it calculates from the received data.
+ *      vi.) The server checks that the path stays inside its folder, creating any missing subfolders.
+ *      vii.) The server reads the size of the original file, then reads the chunks until the 0 length.
+ *      viii.) The server decrypts and decompresses each chunk as it arrives, writing it straight to disk.
+ *      ix.) The server reads the length of the checksum from the client, then reads the checksum itself.
+ *      x.) The server compares the checksum from the client to the checksum it calculates from the received data.
+ *      xi.) The server reads the two predicate bitsets and puts them on its span for the file.
+ *
+ *  5.) For each batch of small files, the client sends the FRAME_BATCH type as a byte, then the traceparent of the
+ *  batch span, and an index with the number of files followed by the path, 64-bit size and digest of each. The data
+ *  of all the files follows as one stream, framed and compressed/encrypted like a single file. Each file starts where
+ *  the previous one ends, so the server splits the stream back into files in one pass and checks every digest. The
+ *  two predicate bitsets of the batch follow the data, as in step 4.v.
+ *
+ *  6.) Client sends the FRAME_END type once every file has been sent.
  */
 
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -44,27 +57,25 @@ import java.io.*;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
-import java.security.DigestOutputStream;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.DeflaterOutputStream;
 
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
 import io.opentelemetry.api.trace.*;
 import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.api.metrics.DoubleHistogram;
 import io.opentelemetry.context.Context;
-import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
-import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
-import io.opentelemetry.sdk.OpenTelemetrySdk;
-import io.opentelemetry.sdk.metrics.SdkMeterProvider;
-import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
-import io.opentelemetry.sdk.trace.SdkTracerProvider;
-import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
-import io.opentelemetry.sdk.resources.Resource;
-import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.context.Scope;
 
 public class Client {
     ObjectInputStream oInputStream;
@@ -72,40 +83,16 @@ public class Client {
     DataOutputStream dOutputStream;
     Cipher cipher;
     ByteArrayOutputStream byteArrayOutputStream;
-    PredicateLogger logger = new PredicateLogger("run_" + System.currentTimeMillis() + ".txt");
-
-    private static final OtlpGrpcSpanExporter exporter = OtlpGrpcSpanExporter.builder()
-            .setEndpoint("http://localhost:4317")
-            .build();
-
-    private static final OtlpGrpcMetricExporter metricExporter = OtlpGrpcMetricExporter.builder()
-            .setEndpoint("http://localhost:4317")
-            .build();
-
-    static Resource app = Resource.getDefault().toBuilder().put("service.name", "COSC3P95-Part2").build();
 
-    private static final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
-            .addSpanProcessor(BatchSpanProcessor.builder(exporter).build())
-            .setResource(app)
-            .setSampler(Sampler.alwaysOn())
-            .build();
-    private static final SdkMeterProvider meterProvider = SdkMeterProvider.builder()
-            .setResource(app)
-            .registerMetricReader(PeriodicMetricReader.builder(metricExporter)
-                    .setInterval(Duration.ofSeconds(2))
-                    .build())
-            .build();
+    // The local address and port of the connection, which the server sees as the client's address
+    String connectionId = "";
+    PredicateLogger logger = new PredicateLogger("run_" + System.currentTimeMillis());
 
-    private static final OpenTelemetrySdk openTelemetry = OpenTelemetrySdk.builder()
-            .setTracerProvider(tracerProvider)
-            .setMeterProvider(meterProvider)
-            .build();
+    private static final Telemetry telemetry = Telemetry.start("client", 9465);
 
-    private static final Tracer tracer =
-            openTelemetry.getTracer("file-transfer");
+    private static final Tracer tracer = telemetry.tracer("file-transfer");
 
-    private static final Meter meter =
-            openTelemetry.getMeter("file-transfer-metrics");
+    private static final Meter meter = telemetry.meter("file-transfer-metrics");
 
     private static final LongCounter filesTransferred =
             meter.counterBuilder("files_transferred_total")
@@ -119,24 +106,116 @@ public class Client {
                     .setUnit("ratio")
                     .build();
 
-    static Span parentSpan;
-    static Span fileSpan;
+    private static final StageMetrics stageMetrics = new StageMetrics(meter);
+
+    // Upper bound on the bytes of file data waiting to be sent, including the chunk currently on the wire
+    static long READ_AHEAD_BUDGET = Long.getLong("client.readAheadBudget", 64L * 1024L * 1024L);
+
+    // Number of threads that list directories while the folder tree is walked
+    static int SCAN_PARALLELISM = Integer.getInteger("client.scanThreads", Runtime.getRuntime().availableProcessors());
+
+    // Files smaller than this are packed together into batches of about BATCH_SIZE bytes instead of sent one by one
+    static long PACK_THRESHOLD = Long.getLong("client.packThreshold", 64L * 1024L);
+    static long BATCH_SIZE = Long.getLong("client.batchSize", 1024L * 1024L);
+
+    // Files that compress better than this are corrupted on purpose, the bug the statistical debugging looks for
+    static double BUG_RATIO = 2.087535;
+
+    // Predicates evaluated for each file, see PredicateRegistry
+    static final int FILE_NO_LT_10 = PredicateRegistry.register("pred.file_no_lt_10");
+    static final int FILE_NO_GT_10 = PredicateRegistry.register("pred.file_no_gt_10");
+    static final int ADVANCED_FEATURES = PredicateRegistry.register("pred.USE_ADVANCED_FEATURES");
+    static final int CORRUPTED = PredicateRegistry.register("bug.corrupted");
+    static final int SIZE_LT_5MB = PredicateRegistry.register("pred.file_size_lt_5MB");
+    static final int SIZE_GT_5MB = PredicateRegistry.register("pred.file_size_gt_5MB");
+    static final int SIZE_LT_10MB = PredicateRegistry.register("pred.file_size_lt_10MB");
+    static final int SIZE_GT_10MB = PredicateRegistry.register("pred.file_size_gt_10MB");
+    static final int ALGORITHM_MD5 = PredicateRegistry.register("pred.algorithm_MD5");
+    static final int ALGORITHM_SHA_256 = PredicateRegistry.register("pred.algorithm_SHA_256");
+
+    // Numeric observations of each file, logged as values so the PredicateAnalyzer can find their thresholds
+    static final int COMPRESSION_RATIO = PredicateRegistry.registerVariable("compression_ratio");
+    static final int FILE_SIZE = PredicateRegistry.registerVariable("file_size");
+    static final int FILE_NUMBER = PredicateRegistry.registerVariable("file_number");
+    static final int READ_MILLIS = PredicateRegistry.registerVariable("read_millis");
+    static final int COMPRESS_MILLIS = PredicateRegistry.registerVariable("compress_millis");
+    static final int ENCRYPT_MILLIS = PredicateRegistry.registerVariable("encrypt_millis");
+    static final int SEND_MILLIS = PredicateRegistry.registerVariable("send_millis");
+
+    // The true and observed bitsets of a file's predicates, as one attribute on its span
+    static final AttributeKey<List<Long>> PREDICATE_BITS = AttributeKey.longArrayKey("pred.bits");
+
+    /**
+     * The state of one file, or batch of small files, while it is streamed from the read-ahead thread to the socket.
+     * Its predicate outcomes are collected here and logged as one record once the file has been sent.
+     */
+    static class PreparedFile {
+        File file;
+        String name;
+        Span span;
+        Context context;
+        Span sendSpan;
+        long originalSize;
+        long payloadSize;
+        byte[] digest;
+        String digestAlgorithm;
+        Throwable error;
+
+        // Time spent encrypting and writing this file's frames, for the stage metrics
+        long encryptNanos;
+        long sendNanos;
+        TransferEvents.Send sendEvent;
+        PredicateRegistry.Record predicates = new PredicateRegistry.Record();
+
+        // Set when several small files are packed into one batch frame
+        ArrayList<String> batchNames;
+        long[] batchSizes;
+        ArrayList<byte[]> batchDigests;
+    }
 
+    /**
+     * One frame of compressed/encrypted data on its way to the socket. A chunk without a file marks the end of the
+     * transfer.
+     */
+    static class Chunk {
+        PreparedFile file;
+        byte[] data;
+        int length;
+        boolean first;
+        boolean last;
+
+        Chunk(PreparedFile file, byte[] data, int length, boolean first, boolean last) {
+            this.file = file;
+            this.data = data;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    @SuppressWarnings("try")
     public Client(String host, int portNumber, String folderPath) throws Exception {
         File folder = new File(folderPath);
-        File[] files = folder.listFiles();
 
-        if(files == null){
+        if(!folder.isDirectory()){
             throw new Exception("No files found in: " + folderPath);
         }
 
         String[] tmp = folderPath.split("/");
         String folderName = tmp[tmp.length-1];
 
+        DirectoryScanner scanner = new DirectoryScanner(folder.toPath(), SCAN_PARALLELISM);
+        ExecutorService readAheadExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "client-read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+
         try(Socket socket = new Socket(host, portNumber)) {
+            connectionId = socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
             oOutputStream = new ObjectOutputStream(socket.getOutputStream());
             oInputStream = new ObjectInputStream(socket.getInputStream());
-            dOutputStream = new DataOutputStream(socket.getOutputStream());
+            dOutputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), Server.BUFFER_SIZE));
 
             byteArrayOutputStream = new ByteArrayOutputStream(Server.BUFFER_SIZE);
 
@@ -146,120 +225,591 @@ public class Client {
             IvParameterSpec ivParameterSpec = new IvParameterSpec(Server.IV);
             cipher.init(Cipher.ENCRYPT_MODE, key, ivParameterSpec);
 
-            // Receive TRACE_ID and SPAN_ID
-            String traceId = (String) oInputStream.readObject();
-            String spanId = (String) oInputStream.readObject();
+            // Receive the traceparent of the server's connection span, every file span of this transfer is its child
+            Context connectionContext = TraceHeader.decode(oInputStream.readUTF());
+            try (Scope connectionScope = connectionContext.makeCurrent()) {
+                transfer(folderName, scanner, readAheadExecutor);
+            }
+        } catch (UnknownHostException e) {
+            logger.markException();
+            e.printStackTrace();
+        } catch (IOException e) {
+            logger.markException();
+            e.printStackTrace();
+        } finally {
+            readAheadExecutor.shutdownNow();
+            scanner.close();
+            logger.finalizeLog();
+        }
+    }
+
+    /**
+     * Sends the folder over an open connection. Runs with the server's connection span as the current span, and the
+     * read-ahead thread is given the same context.
+     */
+    @SuppressWarnings("try")
+    private void transfer(String folderName, DirectoryScanner scanner, ExecutorService readAheadExecutor)
+            throws IOException, ClassNotFoundException {
+        // Send folder name
+        oOutputStream.writeObject(folderName);
+        Span.current().addEvent("Sent folder name");
+
+        // Send the names of the predicates, which are all registered when this class is loaded
+        int predicates = PredicateRegistry.size();
+        dOutputStream.writeInt(predicates);
+        for (int id = 0; id < predicates; id++) {
+            dOutputStream.writeUTF(PredicateRegistry.name(id));
+        }
+
+        // Walk the folder tree in parallel, files are sent as soon as the scanner finds them
+        scanner.start();
+
+        // Read and compress ahead of the socket, while the previous chunk is still being sent
+        MemoryBoundedQueue<Chunk> queue = new MemoryBoundedQueue<>(READ_AHEAD_BUDGET);
+        readAheadExecutor.execute(Context.current().wrap(() -> prepareFiles(scanner, queue)));
+
+        while (true) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the next file", e);
+            }
+            PreparedFile prepared = chunk.file;
+            if (prepared == null) {
+                break;
+            }
+            if (prepared.error != null) {
+                prepared.span.recordException(prepared.error);
+                prepared.span.end();
+                throw new IOException("Could not prepare " + prepared.name, prepared.error);
+            }
+
+            try (Scope fileScope = prepared.context.makeCurrent()) {
+                sendChunk(prepared, chunk, queue);
+            }
+        }
+
+        // Tell the server there are no more files
+        dOutputStream.writeByte(Server.FRAME_END);
+        dOutputStream.flush();
+        Span.current().addEvent("Sent all files");
+
+        oOutputStream.close();
+        dOutputStream.close();
+    }
+
+    /**
+     * Sends one chunk taken from the read-ahead queue, with the header of its file before the first chunk and the
+     * checksum after the last. Runs with the file's span as the current span.
+     */
+    private void sendChunk(PreparedFile prepared, Chunk chunk, MemoryBoundedQueue<Chunk> queue)
+            throws IOException, ClassNotFoundException {
+        if (chunk.first) {
+            prepared.sendEvent = TransferEvents.begin(new TransferEvents.Send());
+            prepared.sendSpan = sendHeader(prepared);
+        }
 
-            parentSpan = Span.wrap(SpanContext.createFromRemoteParent(traceId,
-                    spanId, TraceFlags.getSampled(), TraceState.getDefault()));
+        long start = System.nanoTime();
+        writeChunk(dOutputStream, chunk.data, chunk.length);
+        prepared.sendNanos += System.nanoTime() - start;
+        queue.release(chunk.length);
 
-            // Send folder name
-            oOutputStream.writeObject(folderName);
-            parentSpan.addEvent("Sent folder name");
+        if (chunk.last) {
+            start = System.nanoTime();
+            dOutputStream.writeInt(0);
 
-            // Create ArrayList of file names
-            ArrayList<String> fileNames = new ArrayList<>();
-            for (File file : files){
-                fileNames.add(file.getName());
+            endSendData(prepared.sendSpan, prepared.payloadSize, prepared.predicates);
+            if (Server.USE_ADVANCED_FEATURES && prepared.batchNames == null) {
+                sendChecksum(dOutputStream, prepared.digest, prepared.digestAlgorithm, prepared.predicates);
             }
-            parentSpan.addEvent("Sent ArrayList of file names");
 
-            // Send ArrayList of file names
-            oOutputStream.writeObject(fileNames);
+            dOutputStream.writeLong(prepared.predicates.trueBits);
+            dOutputStream.writeLong(prepared.predicates.observedBits);
+            dOutputStream.flush();
+            prepared.sendNanos += System.nanoTime() - start;
+
+            prepared.predicates.value(FILE_SIZE, prepared.originalSize);
+            prepared.predicates.value(ENCRYPT_MILLIS, prepared.encryptNanos / 1e6);
+            prepared.predicates.value(SEND_MILLIS, prepared.sendNanos / 1e6);
+            logger.record(prepared.predicates);
+            if (prepared.span.isRecording()) {
+                prepared.span.setAttribute(PREDICATE_BITS,
+                        Arrays.asList(prepared.predicates.trueBits, prepared.predicates.observedBits));
+            }
+            stageMetrics.record(StageMetrics.Stage.SEND_DATA, prepared.originalSize,
+                    StageMetrics.codec(Server.USE_ADVANCED_FEATURES), prepared.payloadSize, prepared.sendNanos);
+            prepared.sendEvent.record(connectionId, StageMetrics.codec(Server.USE_ADVANCED_FEATURES),
+                    prepared.payloadSize, prepared.sendNanos);
+
+            String sync = (String) oInputStream.readObject();
+
+            if (prepared.batchNames == null) {
+                System.out.println("Finished transferring: " + prepared.name + ", Size: " + prepared.originalSize);
+            } else {
+                System.out.println("Finished transferring batch of " + prepared.batchNames.size()
+                        + " files, Size: " + prepared.originalSize);
+            }
 
+            prepared.span.end();
+        }
+    }
+
+    /**
+     * Runs on the read-ahead thread. Streams each file the scanner finds through compression and encryption and hands
+     * the resulting chunks to the sending thread, blocking whenever the queue holds more than READ_AHEAD_BUDGET bytes.
+     * Files smaller than PACK_THRESHOLD are collected and packed together into batches of about BATCH_SIZE bytes.
+     *
+     * If anything else goes wrong on this thread, the sending thread is handed a failed PreparedFile instead of the
+     * end marker, so it aborts the connection rather than ending a transfer that is missing files.
+     */
+    private void prepareFiles(DirectoryScanner scanner, MemoryBoundedQueue<Chunk> queue) {
+        try {
             MessageDigest md = MessageDigest.getInstance("MD5");
 
             int number = 1;
-            for(File file : files){
-                fileSpan = tracer.spanBuilder("single_file_transfer")
-                        .setParent(Context.current().with(parentSpan))
-                        .setSpanKind(SpanKind.CLIENT)
-                        .setAttribute("File.name", file.getName())
-                        .setAttribute("File.size", file.length())
-                        .setAttribute("File.number", number++)
-                        .startSpan();
-
-                logger.log("----------------------------------");
-                boolean isFileNumberlt10 = number < 10; // < 10
-                fileSpan.setAttribute("pred.file_no_lt_10", isFileNumberlt10);
-                logger.log("pred.file_no_lt_10=" + isFileNumberlt10);
-
-                boolean isFileNumbergt10 = number > 10; // > 10
-                fileSpan.setAttribute("pred.file_no_gt_10", isFileNumbergt10);
-                logger.log("pred.file_no_gt_10=" + isFileNumbergt10);
-
-                oOutputStream.writeObject(fileSpan.getSpanContext().getSpanId());
-
-                byte[] data = readFile(file);
-
-                if(Server.USE_ADVANCED_FEATURES){
-                    fileSpan.setAttribute("pred.USE_ADVANCED_FEATURES", Server.USE_ADVANCED_FEATURES);
-                    logger.log("pred.USE_ADVANCED_FEATURES=" + Server.USE_ADVANCED_FEATURES);
-
-                    byte[] compressedData = compress(data, md);
-                    byte[] encryptedCompressedData = encrypt(compressedData, cipher);
-                    sendData(dOutputStream, encryptedCompressedData);
-                    sendChecksum(dOutputStream, md);
-                }
-                else{
-                    sendData(dOutputStream, data);
+            ArrayList<Path> batch = new ArrayList<>();
+            long batchBytes = 0;
+            Path path;
+            while ((path = scanner.next()) != null) {
+                long size = path.toFile().length();
+                if (size < PACK_THRESHOLD) {
+                    batch.add(path);
+                    batchBytes += size;
+                    if (batchBytes >= BATCH_SIZE || batch.size() >= Server.MAX_BATCH_FILES) {
+                        if (!prepareBatch(scanner, batch, number++, md, queue)) {
+                            return;
+                        }
+                        batch.clear();
+                        batchBytes = 0;
+                    }
+                    continue;
                 }
 
-                String sync = (String) oInputStream.readObject();
+                if (!prepareFile(scanner, path, number++, md, queue)) {
+                    return;
+                }
+            }
 
-                System.out.println("Finished transferring: " + file.getName() + ", Size: " + file.length());
+            if (batch.size() == 1) {
+                prepareFile(scanner, batch.get(0), number, md, queue);
+            } else if (!batch.isEmpty()) {
+                prepareBatch(scanner, batch, number, md, queue);
+            }
+        } catch (InterruptedException e) {
+            // The sending thread has given up on the transfer
+            return;
+        } catch (Throwable e) {
+            logger.markException();
+            e.printStackTrace();
 
-                fileSpan.end();
+            PreparedFile failed = new PreparedFile();
+            failed.name = "the remaining files";
+            failed.span = Span.getInvalid();
+            failed.error = e;
+            try {
+                queue.put(new Chunk(failed, null, 0, true, true), 0);
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
             }
+            return;
+        }
 
-            oOutputStream.close();
-            dOutputStream.close();
-        } catch (UnknownHostException e) {
+        try {
+            queue.put(new Chunk(null, null, 0, false, true), 0);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts the span and predicate record for one transfer unit, which is either a single file or a batch.
+     */
+    private PreparedFile startTransfer(String spanName, String name, long size, int number) {
+        PreparedFile prepared = new PreparedFile();
+        prepared.name = name;
+        prepared.originalSize = size;
+        prepared.span = tracer.spanBuilder(spanName)
+                .setSpanKind(SpanKind.CLIENT)
+                .setAttribute("File.name", name)
+                .setAttribute("File.size", size)
+                .setAttribute("File.number", number++)
+                .startSpan();
+        prepared.context = Context.current().with(prepared.span);
+
+        prepared.predicates.set(FILE_NO_LT_10, number < 10);
+        prepared.predicates.set(FILE_NO_GT_10, number > 10);
+        prepared.predicates.value(FILE_NUMBER, number);
+
+        return prepared;
+    }
+
+    /**
+     * Queues one file, returning false if it could not be read and the transfer has to stop.
+     */
+    @SuppressWarnings("try")
+    private boolean prepareFile(DirectoryScanner scanner, Path path, int number, MessageDigest md,
+                                MemoryBoundedQueue<Chunk> queue) throws InterruptedException {
+        File file = path.toFile();
+        PreparedFile prepared = startTransfer("single_file_transfer", scanner.relativeName(path), file.length(), number);
+        prepared.file = file;
+
+        try (Scope scope = prepared.context.makeCurrent()) {
+            streamFile(prepared, md, queue);
+        } catch (IOException e) {
             logger.markException();
-            e.printStackTrace();
+            prepared.error = e;
+            queue.put(new Chunk(prepared, null, 0, true, true), 0);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queues several small files as one batch, returning false if one could not be read and the transfer has to stop.
+     */
+    @SuppressWarnings("try")
+    private boolean prepareBatch(DirectoryScanner scanner, ArrayList<Path> paths, int number, MessageDigest md,
+                                 MemoryBoundedQueue<Chunk> queue) throws InterruptedException {
+        PreparedFile prepared = startTransfer("file_batch_transfer", scanner.relativeName(paths.get(0)), 0, number);
+        prepared.batchNames = new ArrayList<>();
+        for (Path path : paths) {
+            prepared.batchNames.add(scanner.relativeName(path));
+        }
+        prepared.span.setAttribute("batch.files", paths.size());
+
+        try (Scope scope = prepared.context.makeCurrent()) {
+            packBatch(prepared, paths, md, queue);
         } catch (IOException e) {
             logger.markException();
+            prepared.error = e;
+            queue.put(new Chunk(prepared, null, 0, true, true), 0);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads one file a chunk at a time and queues it as frames of at most Server.CHUNK_SIZE bytes, so memory use does
+     * not depend on the size of the file. With advanced features on, each chunk is digested, deflated and encrypted
+     * on the way through.
+     */
+    private void streamFile(PreparedFile prepared, MessageDigest md, MemoryBoundedQueue<Chunk> queue)
+            throws IOException, InterruptedException {
+        Span readSpan = startStage("read_file");
+        TransferEvents.Read readEvent = TransferEvents.begin(new TransferEvents.Read());
+        Span compressSpan = null;
+        Span encryptSpan = null;
+        TransferEvents.Compress compressEvent = null;
+        TransferEvents.Encrypt encryptEvent = null;
+        ByteArrayOutputStream compressed = null;
+        DeflaterOutputStream deflaterOutputStream = null;
+
+        if (Server.USE_ADVANCED_FEATURES) {
+            prepared.predicates.set(ADVANCED_FEATURES, Server.USE_ADVANCED_FEATURES);
+
+            compressSpan = startStage("compress_file");
+            compressSpan.setAttribute("original_size.bytes", prepared.originalSize);
+            compressSpan.addEvent("compression.start");
+            compressEvent = TransferEvents.begin(new TransferEvents.Compress());
+            encryptSpan = startStage("encrypt_file");
+            encryptSpan.addEvent("encryption.start");
+            encryptEvent = TransferEvents.begin(new TransferEvents.Encrypt());
+
+            compressed = new ByteArrayOutputStream(Server.CHUNK_SIZE);
+            deflaterOutputStream = new DeflaterOutputStream(compressed);
+        }
+
+        byte[] buffer = new byte[Server.CHUNK_SIZE];
+        long originalSize = 0;
+        boolean first = true;
+        long readNanos = 0;
+        long compressNanos = 0;
+
+        try (InputStream inputStream = new FileInputStream(prepared.file)) {
+            int read;
+            long start = System.nanoTime();
+            while ((read = readChunk(inputStream, buffer)) > 0) {
+                originalSize += read;
+                readNanos += System.nanoTime() - start;
+
+                if (Server.USE_ADVANCED_FEATURES) {
+                    md.update(buffer, 0, read);
+                    start = System.nanoTime();
+                    compress(deflaterOutputStream, buffer, read);
+                    compressNanos += System.nanoTime() - start;
+                    first = queueFrames(prepared, drain(compressed), false, queue, first);
+                }
+                else {
+                    byte[] data = Arrays.copyOf(buffer, read);
+                    prepared.payloadSize += read;
+                    queue.put(new Chunk(prepared, data, read, first, false), read);
+                    first = false;
+                }
+                start = System.nanoTime();
+            }
+            readNanos += System.nanoTime() - start;
+            prepared.predicates.value(READ_MILLIS, readNanos / 1e6);
+            readSpan.setAttribute("bytes.read", originalSize);
+            stageMetrics.record(StageMetrics.Stage.READ_FILE, originalSize,
+                    StageMetrics.codec(Server.USE_ADVANCED_FEATURES), originalSize, readNanos);
+            readEvent.record(connectionId, StageMetrics.codec(Server.USE_ADVANCED_FEATURES), originalSize, readNanos);
+
+            if (Server.USE_ADVANCED_FEATURES) {
+                start = System.nanoTime();
+                deflaterOutputStream.finish();
+                compressNanos += System.nanoTime() - start;
+                prepared.predicates.value(COMPRESS_MILLIS, compressNanos / 1e6);
+                long compressedSize = prepared.payloadSize + compressed.size();
+                boolean corrupted = evaluateCompression(prepared, compressSpan, originalSize, compressedSize);
+
+                // Bug
+                if (corrupted && compressed.size() > 0) {
+                    // The stream has already been sent up to this point, so the corruption is applied to the first
+                    // byte of the final deflate block instead of the first byte of the file
+                    byte[] tail = compressed.toByteArray();
+                    tail[0] ^= 0x01;  // flip lowest bit of first byte
+                    compressed.reset();
+                    compressed.write(tail);
+                }
+
+                // The sending thread reads the digest once it has the last chunk
+                prepared.digestAlgorithm = md.getAlgorithm();
+                prepared.digest = md.digest();
+
+                queueFrames(prepared, drain(compressed), true, queue, first);
+                cipher.doFinal();
+
+                stageMetrics.record(StageMetrics.Stage.COMPRESS_FILE, originalSize, StageMetrics.CODEC_DEFLATE,
+                        originalSize, compressNanos);
+                compressEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, originalSize, compressNanos);
+                stageMetrics.record(StageMetrics.Stage.ENCRYPT_FILE, originalSize, StageMetrics.CODEC_DEFLATE,
+                        prepared.payloadSize, prepared.encryptNanos);
+                encryptEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, prepared.payloadSize,
+                        prepared.encryptNanos);
+            }
+            else {
+                queue.put(new Chunk(prepared, new byte[0], 0, first, true), 0);
+            }
+        } catch (IOException e) {
             e.printStackTrace();
+            readSpan.recordException(e);
+            throw e;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            encryptSpan.recordException(e);
+            throw new IOException(e);
         } finally {
-            logger.finalizeLog();
-            openTelemetry.getSdkTracerProvider().shutdown();
+            md.reset();
+            readSpan.end();
+            if (compressSpan != null) {
+                compressSpan.setAttribute("compressed_size.bytes", prepared.payloadSize);
+                compressSpan.addEvent("compression.end");
+                compressSpan.end();
+            }
+            if (encryptSpan != null) {
+                encryptSpan.addEvent("encryption.end");
+                encryptSpan.end();
+            }
         }
     }
 
-    private byte[] readFile(File file) {
-        Span span = tracer.spanBuilder("read_file")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.CLIENT)
-                .startSpan();
-        // Read file into memory
-        byte[] data = null;
+    /**
+     * Reads a batch of small files into one buffer and queues it as a single compressed/encrypted stream. The whole
+     * batch is at most about BATCH_SIZE bytes, so it is prepared in memory, and each file's size and digest go into
+     * the batch index that is sent ahead of the data.
+     */
+    private void packBatch(PreparedFile prepared, ArrayList<Path> paths, MessageDigest md,
+                           MemoryBoundedQueue<Chunk> queue) throws IOException, InterruptedException {
+        Span readSpan = startStage("read_file");
+        TransferEvents.Read readEvent = TransferEvents.begin(new TransferEvents.Read());
+        ByteArrayOutputStream packed = new ByteArrayOutputStream();
+        prepared.batchSizes = new long[paths.size()];
+        prepared.batchDigests = new ArrayList<>();
+        prepared.digestAlgorithm = md.getAlgorithm();
+
         try {
-            data = Files.readAllBytes(file.toPath());
+            long readNanos = 0;
+            for (int i = 0; i < paths.size(); i++) {
+                long start = System.nanoTime();
+                byte[] data = Files.readAllBytes(paths.get(i));
+                readNanos += System.nanoTime() - start;
+                prepared.batchSizes[i] = data.length;
+                prepared.batchDigests.add(md.digest(data));
+                packed.write(data);
+            }
+            prepared.predicates.value(READ_MILLIS, readNanos / 1e6);
+            readSpan.setAttribute("bytes.read", packed.size());
+            stageMetrics.record(StageMetrics.Stage.READ_FILE, packed.size(),
+                    StageMetrics.codec(Server.USE_ADVANCED_FEATURES), packed.size(), readNanos);
+            readEvent.record(connectionId, StageMetrics.codec(Server.USE_ADVANCED_FEATURES), packed.size(), readNanos);
         } catch (IOException e) {
-            logger.markException();
             e.printStackTrace();
+            readSpan.recordException(e);
+            throw e;
         } finally {
-            span.end();
+            readSpan.end();
+        }
+
+        byte[] data = packed.toByteArray();
+        prepared.originalSize = data.length;
+        prepared.span.setAttribute("File.size", data.length);
+
+        if (!Server.USE_ADVANCED_FEATURES) {
+            queueFrames(prepared, data, true, queue, true);
+            return;
+        }
+
+        prepared.predicates.set(ADVANCED_FEATURES, Server.USE_ADVANCED_FEATURES);
+
+        Span compressSpan = startStage("compress_file");
+        compressSpan.setAttribute("original_size.bytes", data.length);
+        compressSpan.addEvent("compression.start");
+        TransferEvents.Compress compressEvent = TransferEvents.begin(new TransferEvents.Compress());
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        try (DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(compressed)) {
+            compress(deflaterOutputStream, data, data.length);
+        } catch (IOException e) {
+            e.printStackTrace();
+            compressSpan.recordException(e);
+            compressSpan.end();
+            throw e;
+        }
+        byte[] compressedData = compressed.toByteArray();
+        long compressNanos = System.nanoTime() - start;
+        prepared.predicates.value(COMPRESS_MILLIS, compressNanos / 1e6);
+        stageMetrics.record(StageMetrics.Stage.COMPRESS_FILE, data.length, StageMetrics.CODEC_DEFLATE,
+                data.length, compressNanos);
+        compressEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, data.length, compressNanos);
+
+        boolean corrupted = evaluateCompression(prepared, compressSpan, data.length, compressedData.length);
+
+        // Bug
+        if (corrupted && compressedData.length > 0) {
+            compressedData[0] ^= 0x01;  // flip lowest bit of first byte
+        }
+        compressSpan.setAttribute("compressed_size.bytes", compressedData.length);
+        compressSpan.addEvent("compression.end");
+        compressSpan.end();
+
+        Span encryptSpan = startStage("encrypt_file");
+        encryptSpan.addEvent("encryption.start");
+        TransferEvents.Encrypt encryptEvent = TransferEvents.begin(new TransferEvents.Encrypt());
+        try {
+            queueFrames(prepared, compressedData, true, queue, true);
+            cipher.doFinal();
+            stageMetrics.record(StageMetrics.Stage.ENCRYPT_FILE, data.length, StageMetrics.CODEC_DEFLATE,
+                    compressedData.length, prepared.encryptNanos);
+            encryptEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, compressedData.length,
+                    prepared.encryptNanos);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            encryptSpan.recordException(e);
+            throw new IOException(e);
+        } finally {
+            encryptSpan.addEvent("encryption.end");
+            encryptSpan.end();
+        }
+    }
+
+    private Span startStage(String name) {
+        return tracer.spanBuilder(name)
+                .setSpanKind(SpanKind.CLIENT)
+                .startSpan();
+    }
+
+    /**
+     * Fills the buffer from the stream, returning fewer bytes only at end of file.
+     */
+    private int readChunk(InputStream inputStream, byte[] buffer) throws IOException {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = inputStream.read(buffer, total, buffer.length - total)) != -1) {
+            total += read;
         }
-        return data;
+        return total;
     }
 
-    private void sendChecksum(DataOutputStream dOutputStream, MessageDigest md) throws IOException {
+    private byte[] drain(ByteArrayOutputStream compressed) {
+        byte[] pending = compressed.toByteArray();
+        compressed.reset();
+        return pending;
+    }
+
+    /**
+     * Queues pending data in frames of at most Server.CHUNK_SIZE bytes, encrypting it first when advanced features
+     * are on. Returns whether the next frame is still the first one of the transfer.
+     */
+    private boolean queueFrames(PreparedFile prepared, byte[] pending, boolean last,
+                                MemoryBoundedQueue<Chunk> queue, boolean first)
+            throws InterruptedException {
+        int offset = 0;
+        do {
+            int length = Math.min(Server.CHUNK_SIZE, pending.length - offset);
+            boolean lastFrame = last && offset + length == pending.length;
+            if (length > 0 || lastFrame) {
+                long start = System.nanoTime();
+                byte[] encrypted = Server.USE_ADVANCED_FEATURES
+                        ? encrypt(pending, offset, length, cipher)
+                        : Arrays.copyOfRange(pending, offset, offset + length);
+                prepared.encryptNanos += System.nanoTime() - start;
+                prepared.payloadSize += length;
+                queue.put(new Chunk(prepared, encrypted, length, first, lastFrame), length);
+                first = false;
+            }
+            offset += length;
+        } while (offset < pending.length);
+
+        return first;
+    }
+
+    /**
+     * Sends the frame type and everything the server needs before the data: the relative path of a single file, or
+     * the index of a batch, along with the span ID and the 64-bit size of the original data.
+     */
+    private Span sendHeader(PreparedFile prepared) throws IOException {
+        if (prepared.batchNames == null) {
+            dOutputStream.writeByte(Server.FRAME_FILE);
+            dOutputStream.writeUTF(prepared.name);
+        } else {
+            dOutputStream.writeByte(Server.FRAME_BATCH);
+        }
+        dOutputStream.writeUTF(TraceHeader.encode(prepared.context));
+
+        if (prepared.batchNames != null) {
+            sendBatchIndex(dOutputStream, prepared);
+        }
+        return startSendData(dOutputStream, prepared.originalSize);
+    }
+
+    /**
+     * Sends the number of files in a batch, then the relative path, size and digest of each. Each file starts where
+     * the previous one ends in the batch data.
+     */
+    private void sendBatchIndex(DataOutputStream dOutputStream, PreparedFile prepared) throws IOException {
+        dOutputStream.writeInt(prepared.batchNames.size());
+        for (int i = 0; i < prepared.batchNames.size(); i++) {
+            byte[] digest = prepared.batchDigests.get(i);
+            dOutputStream.writeUTF(prepared.batchNames.get(i));
+            dOutputStream.writeLong(prepared.batchSizes[i]);
+            dOutputStream.writeByte(digest.length);
+            dOutputStream.write(digest);
+        }
+    }
+
+    private void sendChecksum(DataOutputStream dOutputStream, byte[] digest, String algorithm,
+                              PredicateRegistry.Record predicates) throws IOException {
         Span span = tracer.spanBuilder("send_checksum")
-                .setParent(Context.current().with(fileSpan))
                 .setSpanKind(SpanKind.CLIENT)
                 .startSpan();
         span.addEvent("checksum.start");
 
         // Send length of digest and contents
-        byte[] digest = md.digest();
-
-        boolean Client_compareMD5 = md.getAlgorithm().equals("MD5");
-        boolean Client_compareSHA256 = md.getAlgorithm().equals("SHA_256");
-        span.setAttribute("pred.algorithm_MD5", Client_compareMD5);
-        logger.log("pred.algorithm_MD5=" + Client_compareMD5);
-        span.setAttribute("pred.algorithm_SHA_256", Client_compareSHA256);
-        logger.log("pred.algorithm_SHA_256=" + Client_compareSHA256);
+        predicates.set(ALGORITHM_MD5, algorithm.equals("MD5"));
+        predicates.set(ALGORITHM_SHA_256, algorithm.equals("SHA_256"));
         dOutputStream.writeInt(digest.length);
         dOutputStream.write(digest, 0, digest.length);
         dOutputStream.flush();
@@ -269,121 +819,71 @@ public class Client {
         span.end();
     }
 
-    private void sendData(DataOutputStream dOutputStream, byte[] data) throws IOException {
+    private Span startSendData(DataOutputStream dOutputStream, long originalSize) throws IOException {
         Span span = tracer.spanBuilder("send_data")
-                .setParent(Context.current().with(fileSpan))
                 .setSpanKind(SpanKind.CLIENT)
-                .setAttribute("data.size.bytes", data.length)
+                .setAttribute("original_size.bytes", originalSize)
                 .startSpan();
         span.addEvent("sending.start");
 
-        boolean isLargeFilelt5MB = data.length < 5L * 1024L * 1024L; // < 5MB
-        span.setAttribute("pred.file_size_lt_5MB", isLargeFilelt5MB);
-        logger.log("pred.file_size_lt_5MB=" + isLargeFilelt5MB);
-
-        boolean isLargeFilegt5MB = data.length > 5L * 1024L * 1024L; // > 5MB
-        span.setAttribute("pred.file_size_gt_5MB", isLargeFilegt5MB);
-        logger.log("pred.file_size_gt_5MB=" + isLargeFilegt5MB);
+        dOutputStream.writeLong(originalSize);
+        return span;
+    }
 
-        boolean isLargeFilelt10MB = data.length < 10L * 1024L * 1024L; // < 10MB
-        span.setAttribute("pred.file_size_lt_10MB", isLargeFilelt10MB);
-        logger.log("pred.file_size_lt_10MB=" + isLargeFilelt10MB);
+    private void writeChunk(DataOutputStream dOutputStream, byte[] data, int length) throws IOException {
+        if (length == 0) {
+            return;
+        }
+        // Send chunk length and contents, a zero length ends the file
+        dOutputStream.writeInt(length);
+        dOutputStream.write(data, 0, length);
+    }
 
-        boolean isLargeFilegt10MB = data.length > 10L * 1024L * 1024L; // > 10MB
-        span.setAttribute("pred.file_size_gt_10MB", isLargeFilegt10MB);
-        logger.log("pred.file_size_gt_10MB=" + isLargeFilegt10MB);
+    private void endSendData(Span span, long size, PredicateRegistry.Record predicates) {
+        span.setAttribute("data.size.bytes", size);
 
-        // Send data length and contents
-        dOutputStream.writeInt(data.length);
-        dOutputStream.write(data);
+        predicates.set(SIZE_LT_5MB, size < 5L * 1024L * 1024L);
+        predicates.set(SIZE_GT_5MB, size > 5L * 1024L * 1024L);
+        predicates.set(SIZE_LT_10MB, size < 10L * 1024L * 1024L);
+        predicates.set(SIZE_GT_10MB, size > 10L * 1024L * 1024L);
 
         span.addEvent("sending.end");
         span.end();
     }
 
-    private byte[] encrypt(byte[] data, Cipher cipher) {
-        Span span = tracer.spanBuilder("encrypt_file")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.CLIENT)
-                .startSpan();
-        span.addEvent("encryption.start");
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try(CipherOutputStream cipherOutputStream = new CipherOutputStream(byteArrayOutputStream, cipher))
-        {
-            cipherOutputStream.write(data);
-        } catch (IOException e) {
-            e.printStackTrace();
-            span.recordException(e);
-            logger.markException();
-        }
-
-        span.addEvent("encryption.end");
-        span.end();
-
-        return byteArrayOutputStream.toByteArray();
+    private byte[] encrypt(byte[] data, int offset, int length, Cipher cipher) {
+        byte[] encrypted = cipher.update(data, offset, length);
+        return encrypted == null ? new byte[0] : encrypted;
     }
 
-    private byte[] compress(byte[] data, MessageDigest md) {
-        Span span = tracer.spanBuilder("compress_file")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.CLIENT)
-                .setAttribute("original_size.bytes", data.length)
-                .startSpan();
-        span.addEvent("compression.start");
-
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try(DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(byteArrayOutputStream);
-            DigestOutputStream digestOutputStream = new DigestOutputStream(deflaterOutputStream, md))
-        {
-            digestOutputStream.write(data);
-            deflaterOutputStream.finish();
-        } catch (IOException e) {
-            e.printStackTrace();
-            span.recordException(e);
-            logger.markException();
-        }
-
-        byte[] compressed = byteArrayOutputStream.toByteArray();
-        double ratio = (double)data.length / (double)compressed.length;
+    private void compress(DeflaterOutputStream deflaterOutputStream, byte[] data, int length) throws IOException {
+        deflaterOutputStream.write(data, 0, length);
+    }
 
-        span.setAttribute("compressed_size.bytes", compressed.length);
+    /**
+     * Records the compression ratio once the whole file has been deflated, and returns whether the deliberate bug
+     * fires for this file.
+     */
+    private boolean evaluateCompression(PreparedFile prepared, Span span, long originalSize, long compressedSize) {
+        double ratio = (double)originalSize / (double)compressedSize;
 
         span.setAttribute("compression.ratio", ratio);
-        span.setAttribute("pred.compression_ratio_gt_2_08",  ratio > 2.08);
-        logger.log("pred.compression_ratio_gt_2_08=" + (ratio > 2.08));
-        span.setAttribute("pred.compression_ratio_gt_2_085", ratio > 2.085);
-        logger.log("pred.compression_ratio_gt_2_085=" + (ratio > 2.085));
-        span.setAttribute("pred.compression_ratio_gt_2_087", ratio > 2.087);
-        logger.log("pred.compression_ratio_gt_2_087=" + (ratio > 2.087));
-        span.setAttribute("pred.compression_ratio_gt_2_0875", ratio > 2.0875);
-       logger.log("pred.compression_ratio_gt_2_0875=" + (ratio > 2.0875));
-        span.setAttribute("pred.compression_ratio_gt_2_08751", ratio > 2.08751);
-        logger.log("pred.compression_ratio_gt_2_08751=" + (ratio > 2.08751));
-        span.setAttribute("pred.compression_ratio_gt_2_08752", ratio > 2.08752);
-        logger.log("pred.compression_ratio_gt_2_08752=" + (ratio > 2.08752));
-        span.setAttribute("pred.compression_ratio_gt_2_08753", ratio > 2.087523);
-        logger.log("pred.compression_ratio_gt_2_08753=" + (ratio > 2.08753));
-        span.setAttribute("pred.compression_ratio_gt_2_08754", ratio > 2.08754);
-        logger.log("pred.compression_ratio_gt_2_08754=" + (ratio > 2.08754));
+        PredicateRegistry.Record predicates = prepared.predicates;
+        predicates.value(COMPRESSION_RATIO, ratio);
 
         // Bug
         boolean corrupted = false;
-        if (ratio > 2.087535 && compressed.length > 0) {
-            compressed[0] ^= 0x01;  // flip lowest bit of first byte
+        if (ratio > BUG_RATIO && compressedSize > 0) {
             corrupted = true;
             logger.markException();
         }
         span.setAttribute("bug.corrupted", corrupted);
-        logger.log("bug.corrupted=" + corrupted);
-
-        compressionRatioHistogram.record(ratio);
+        predicates.set(CORRUPTED, corrupted);
 
-        span.setAttribute("compressed_size.bytes", compressed.length);
-        span.addEvent("compression.end");
-        span.end();
+        // Recorded in the context of the file, so a sampled file becomes the exemplar of its bucket
+        compressionRatioHistogram.record(ratio, Attributes.empty(), prepared.context);
 
-        return compressed;
+        return corrupted;
     }
 
     public static void main(String[] args) {
@@ -391,10 +891,14 @@ public class Client {
             System.out.println("Please enter the name of the folder to transfer!");
             System.exit(1);
         }
+        TransferEvents.startRecordingIfRequested();
         try {
             new Client("localhost", 5000, args[0]);
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            // The telemetry SDK is shared by every Client in this JVM, so it is only shut down once the program is done
+            Telemetry.shutdown();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,432 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This CompoundPredicates class finds conjunctions and disjunctions of predicates that predict failure better than
+ * any of the predicates they are made of. A bug that only fires when two conditions hold together is not caught by
+ * either predicate alone, but their conjunction can be.
+ *
+ * The literals are every predicate and its negation (written !pred.x, true where pred.x was evaluated and false).
+ * A conjunction is observed where all its literals were observed and true where all of them were true; a disjunction
+ * is observed where any of its literals was observed and true where any of them was true. Pairs are always tried,
+ * and triples as well if analyzer.compoundSize is 3. The analyzer.compoundTop (default 20) compounds with the highest
+ * Increase are written to compounds.csv, keeping only those whose Increase is above that of each of their literals
+ * and, for a triple, of each pair in it.
+ * Setting analyzer.compoundTop to 0 turns the search off.
+ *
+ * The search does not need the runs themselves: the analyzer keeps a table of every distinct record (which predicates
+ * were observed, which were true and whether it failed) with the number of times it occurred. Real logs repeat a few
+ * records, so the table stays small however many runs there are. Logs whose records are mostly distinct would make it
+ * grow with the runs, so it is held to analyzer.maxRows (default 65536) rows: once it has more, the predicates whose
+ * best literal has the lowest Increase are left out of the table an eighth at a time, and the records that only
+ * differed in those predicates become one row, until it is down to half the limit. The counts of a compound only
+ * depend on the bits of its own predicates, so compounds of the predicates that are kept are still counted exactly,
+ * and the predicates left out are not tried in compounds. They are left out of the table of every log at once, so the
+ * tables still add up. Which ones depends on the counts of the table that filled up, so an incremental update can
+ * keep different ones than reading every log again. The table is only kept when the search is on. Each literal
+ * becomes a bitset over the rows of that table, a compound is the AND or OR of the bitsets of its literals, and a
+ * count is the popcount of a bitset against each bit plane of the row weights, shifted by the plane.
+ *
+ * Before a compound is counted, an upper bound on its Failure is taken from the counts of its literals alone. A
+ * conjunction is true in no more failing records than its rarest literal, and in at least as many successful ones
+ * as its literals share for certain; a disjunction is true in at most the failing records of all its literals
+ * together, and at least in the successful records of each one. Since Increase is never above Failure, a compound
+ * whose bound cannot beat the current top list or its own literals is skipped.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+public class CompoundPredicates {
+    static int TOP = Integer.getInteger("analyzer.compoundTop", 20);
+    static int SIZE = Integer.getInteger("analyzer.compoundSize", 2);
+    static int MAX_ROWS = Integer.getInteger("analyzer.maxRows", 1 << 16);
+
+    /**
+     * A distinct record, with the bits of the interned predicate IDs that were observed and true in it.
+     */
+    static class Row {
+        final long[] trueBits;
+        final long[] observedBits;
+        final boolean failed;
+
+        Row(long[] trueBits, long[] observedBits, boolean failed) {
+            this.trueBits = trueBits;
+            this.observedBits = observedBits;
+            this.failed = failed;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Row)) return false;
+            Row other = (Row) o;
+            return failed == other.failed
+                    && Arrays.equals(trueBits, other.trueBits)
+                    && Arrays.equals(observedBits, other.observedBits);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * Arrays.hashCode(trueBits) + Arrays.hashCode(observedBits)) + (failed ? 1 : 0);
+        }
+
+        /**
+         * Returns this record without the given predicates, as if they had not been observed in it.
+         */
+        Row without(long[] leftOut) {
+            long[] isTrue = new long[trueBits.length];
+            long[] observed = new long[observedBits.length];
+            int words = 1;
+            for (int word = 0; word < observed.length; word++) {
+                long kept = word < leftOut.length ? ~leftOut[word] : -1L;
+                isTrue[word] = trueBits[word] & kept;
+                observed[word] = observedBits[word] & kept;
+                if (observed[word] != 0) words = word + 1;
+            }
+            return new Row(Arrays.copyOf(isTrue, words), Arrays.copyOf(observed, words), failed);
+        }
+    }
+
+    /**
+     * The distinct records of one log, as they are read, keyed by the predicate IDs of the log. Looking a record up
+     * is one probe in an open addressing table, and the records are only translated to interned IDs by drainInto,
+     * when the log is done or one of its IDs is given a new name.
+     */
+    static class LogRows {
+        long[] trueBits = new long[64];
+        long[] observedBits = new long[64];
+        long[] successes = new long[64];
+        long[] failures = new long[64];
+        boolean[] used = new boolean[64];
+        int size = 0;
+
+        void add(long trueRow, long observedRow, boolean failed) {
+            int slot = slot(trueRow, observedRow);
+            if (!used[slot]) {
+                used[slot] = true;
+                trueBits[slot] = trueRow;
+                observedBits[slot] = observedRow;
+                if (++size * 2 > used.length) {
+                    grow();
+                    slot = slot(trueRow, observedRow);
+                }
+            }
+            if (failed) failures[slot]++;
+            else successes[slot]++;
+        }
+
+        private int slot(long trueRow, long observedRow) {
+            int mask = used.length - 1;
+            int slot = Long.hashCode((trueRow * 0x9E3779B97F4A7C15L) ^ observedRow) & mask;
+            while (used[slot] && (trueBits[slot] != trueRow || observedBits[slot] != observedRow)) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldTrue = trueBits, oldObserved = observedBits, oldSuccesses = successes, oldFailures = failures;
+            boolean[] oldUsed = used;
+            int capacity = used.length * 2;
+            trueBits = new long[capacity];
+            observedBits = new long[capacity];
+            successes = new long[capacity];
+            failures = new long[capacity];
+            used = new boolean[capacity];
+            for (int i = 0; i < oldUsed.length; i++) {
+                if (!oldUsed[i]) continue;
+                int slot = slot(oldTrue[i], oldObserved[i]);
+                used[slot] = true;
+                trueBits[slot] = oldTrue[i];
+                observedBits[slot] = oldObserved[i];
+                successes[slot] = oldSuccesses[i];
+                failures[slot] = oldFailures[i];
+            }
+        }
+
+        /**
+         * Adds the records to the table of distinct records of the counts, translating the IDs of the log with the
+         * table and leaving out the predicates the counts leave out, and empties this one.
+         */
+        void drainInto(PredicateAnalyzer.Counts counts, int[] table) {
+            if (size == 0) return;
+            counts.syncRows(false);
+            Map<Row, Long> rows = counts.rows;
+            for (int slot = 0; slot < used.length; slot++) {
+                if (!used[slot]) continue;
+                int words = 1;
+                for (long bits = observedBits[slot]; bits != 0; bits &= bits - 1) {
+                    int predicate = table[Long.numberOfTrailingZeros(bits)];
+                    if (predicate < 0 || counts.leftOut(predicate)) continue;
+                    words = Math.max(words, predicate / 64 + 1);
+                }
+                long[] trueRow = new long[words];
+                long[] observedRow = new long[words];
+                for (long bits = observedBits[slot]; bits != 0; bits &= bits - 1) {
+                    int id = Long.numberOfTrailingZeros(bits);
+                    int predicate = table[id];
+                    if (predicate < 0 || counts.leftOut(predicate)) continue;
+                    observedRow[predicate / 64] |= 1L << predicate;
+                    if ((trueBits[slot] & (1L << id)) != 0) {
+                        trueRow[predicate / 64] |= 1L << predicate;
+                    }
+                }
+                if (successes[slot] > 0) {
+                    rows.merge(new Row(trueRow, observedRow, false), successes[slot], Long::sum);
+                }
+                if (failures[slot] > 0) {
+                    rows.merge(new Row(trueRow, observedRow, true), failures[slot], Long::sum);
+                }
+            }
+            Arrays.fill(used, false);
+            Arrays.fill(successes, 0);
+            Arrays.fill(failures, 0);
+            size = 0;
+            counts.capRows();
+        }
+    }
+
+    /**
+     * A predicate or its negation, as bitsets over the rows, with its counts.
+     */
+    private static class Literal {
+        String name;
+        int predicate;
+        long[] isTrue;
+        long[] observed;
+        long trueFail, trueSuccess;
+        double increase;
+    }
+
+    private final List<Row> rows;
+    private final int words;
+
+    // Bit k of the weight of each row, and the rows that failed
+    private final long[][] planes;
+    private final long[] failed;
+    private long totalFail, totalSuccess;
+
+    private final List<Literal> literals = new ArrayList<>();
+    private final PriorityQueue<PredicateAnalyzer.Result> top = new PriorityQueue<>(
+            Comparator.comparingDouble((PredicateAnalyzer.Result result) -> result.increase));
+    private double[][] andIncreases, orIncreases;
+    private long candidates = 0;
+    private long pruned = 0;
+
+    private CompoundPredicates(PredicateAnalyzer.Counts counts) {
+        rows = new ArrayList<>(counts.rows.keySet());
+        words = (rows.size() + 63) / 64;
+
+        long heaviest = 0;
+        for (long weight : counts.rows.values()) heaviest = Math.max(heaviest, weight);
+        planes = new long[64 - Long.numberOfLeadingZeros(heaviest)][words];
+        failed = new long[words];
+
+        long[][] isTrue = new long[counts.size][words];
+        long[][] observed = new long[counts.size][words];
+        for (int row = 0; row < rows.size(); row++) {
+            Row r = rows.get(row);
+            long bit = 1L << row;
+            long weight = counts.rows.get(r);
+            for (int k = 0; k < planes.length; k++) {
+                if ((weight & (1L << k)) != 0) planes[k][row / 64] |= bit;
+            }
+            if (r.failed) failed[row / 64] |= bit;
+
+            for (int word = 0; word < r.observedBits.length; word++) {
+                for (long bits = r.observedBits[word]; bits != 0; bits &= bits - 1) {
+                    int predicate = word * 64 + Long.numberOfTrailingZeros(bits);
+                    observed[predicate][row / 64] |= bit;
+                    if ((r.trueBits[word] & (bits & -bits)) != 0) isTrue[predicate][row / 64] |= bit;
+                }
+            }
+        }
+
+        long[] all = new long[words];
+        for (int row = 0; row < rows.size(); row++) all[row / 64] |= 1L << row;
+        totalFail = weight(failed);
+        totalSuccess = weight(all) - totalFail;
+
+        for (int predicate = 0; predicate < counts.size; predicate++) {
+            if (counts.trueCount[predicate] + counts.falseCount[predicate] == 0 || counts.leftOut(predicate)) continue;
+            String name = PredicateAnalyzer.predicateName(predicate);
+            long[] negated = new long[words];
+            for (int word = 0; word < words; word++) {
+                negated[word] = observed[predicate][word] & ~isTrue[predicate][word];
+            }
+            literals.add(literal(name, predicate, isTrue[predicate], observed[predicate]));
+            literals.add(literal("!" + name, predicate, negated, observed[predicate]));
+        }
+    }
+
+    /**
+     * Returns the top compounds of the records counted so far, best first.
+     */
+    static List<PredicateAnalyzer.Result> mine(PredicateAnalyzer.Counts counts) {
+        counts.syncRows(false);
+        CompoundPredicates search = new CompoundPredicates(counts);
+        search.search();
+        System.out.println("Tried " + (search.candidates - search.pruned) + " of " + search.candidates
+                + " compound predicates over " + search.rows.size() + " distinct records.");
+        int leftOut = 0;
+        for (long word : counts.leftOut) leftOut += Long.bitCount(word);
+        if (leftOut > 0) {
+            System.out.println(leftOut + " predicates were left out of the compounds to keep the distinct records "
+                    + "within analyzer.maxRows.");
+        }
+
+        List<PredicateAnalyzer.Result> results = new ArrayList<>(search.top);
+        results.sort(Comparator.comparingDouble((PredicateAnalyzer.Result result) -> result.increase).reversed());
+        return results;
+    }
+
+    private void search() {
+        int n = literals.size();
+        for (int a = 0; a < n; a++) {
+            for (int b = a + 1; b < n; b++) {
+                if (literals.get(b).predicate == literals.get(a).predicate) continue;
+                consider(true, a, b);
+                consider(false, a, b);
+
+                if (SIZE < 3) continue;
+                for (int c = b + 1; c < n; c++) {
+                    if (literals.get(c).predicate == literals.get(a).predicate
+                            || literals.get(c).predicate == literals.get(b).predicate) continue;
+                    consider(true, a, b, c);
+                    consider(false, a, b, c);
+                }
+            }
+        }
+    }
+
+    private void consider(boolean and, int... indexes) {
+        candidates++;
+
+        Literal[] parts = new Literal[indexes.length];
+        for (int i = 0; i < indexes.length; i++) parts[i] = literals.get(indexes[i]);
+
+        double best = top.size() < TOP ? Double.NEGATIVE_INFINITY : top.peek().increase;
+        long failBound = and ? Long.MAX_VALUE : 0;
+        long successBound = and ? -(parts.length - 1) * totalSuccess : 0;
+        for (Literal part : parts) {
+            best = Math.max(best, part.increase);
+            if (and) {
+                failBound = Math.min(failBound, part.trueFail);
+                successBound += part.trueSuccess;
+            } else {
+                failBound += part.trueFail;
+                successBound = Math.max(successBound, part.trueSuccess);
+            }
+        }
+        failBound = Math.min(failBound, totalFail);
+        successBound = Math.max(successBound, 0);
+        double failureBound = failBound == 0 ? 0 : (double) failBound / (failBound + successBound);
+        if (failureBound <= best) {
+            pruned++;
+            return;
+        }
+
+        // A triple also has to do better than each pair in it
+        if (parts.length == 3) {
+            best = Math.max(best, Math.max(pairIncrease(and, indexes[0], indexes[1]),
+                    Math.max(pairIncrease(and, indexes[0], indexes[2]), pairIncrease(and, indexes[1], indexes[2]))));
+        }
+
+        PredicateAnalyzer.Result result = compound(and, parts);
+        if (result.increase <= best) return;
+        top.add(result);
+        if (top.size() > TOP) top.poll();
+    }
+
+    private double pairIncrease(boolean and, int a, int b) {
+        double[][] increases = and ? andIncreases : orIncreases;
+        if (increases == null) {
+            increases = new double[literals.size()][literals.size()];
+            for (double[] row : increases) Arrays.fill(row, Double.NaN);
+            if (and) andIncreases = increases;
+            else orIncreases = increases;
+        }
+        if (Double.isNaN(increases[a][b])) {
+            increases[a][b] = compound(and, literals.get(a), literals.get(b)).increase;
+        }
+        return increases[a][b];
+    }
+
+    private PredicateAnalyzer.Result compound(boolean and, Literal... parts) {
+        long[] isTrue = parts[0].isTrue.clone();
+        long[] observed = parts[0].observed.clone();
+        StringBuilder name = new StringBuilder(parts[0].name);
+        for (int i = 1; i < parts.length; i++) {
+            for (int word = 0; word < words; word++) {
+                if (and) {
+                    isTrue[word] &= parts[i].isTrue[word];
+                    observed[word] &= parts[i].observed[word];
+                } else {
+                    isTrue[word] |= parts[i].isTrue[word];
+                    observed[word] |= parts[i].observed[word];
+                }
+            }
+            name.append(and ? " && " : " || ").append(parts[i].name);
+        }
+
+        return result(name.toString(), isTrue, observed);
+    }
+
+    private Literal literal(String name, int predicate, long[] isTrue, long[] observed) {
+        Literal literal = new Literal();
+        literal.name = name;
+        literal.predicate = predicate;
+        literal.isTrue = isTrue;
+        literal.observed = observed;
+        PredicateAnalyzer.Result result = result(name, isTrue, observed);
+        literal.trueFail = result.P_true_fail;
+        literal.trueSuccess = result.trueCount - result.P_true_fail;
+        literal.increase = result.increase;
+        return literal;
+    }
+
+    private PredicateAnalyzer.Result result(String name, long[] isTrue, long[] observed) {
+        long trueCount = weight(isTrue);
+        long observedCount = weight(observed);
+        long trueFail = weightAnd(isTrue, failed);
+        long observedFail = weightAnd(observed, failed);
+        return PredicateAnalyzer.computeMetrics(name, trueCount, observedCount - trueCount, trueFail,
+                observedFail, observedCount - observedFail);
+    }
+
+    /**
+     * Returns the number of records in the rows of the bitset.
+     */
+    private long weight(long[] bitset) {
+        long weight = 0;
+        for (int k = 0; k < planes.length; k++) {
+            long count = 0;
+            for (int word = 0; word < words; word++) {
+                count += Long.bitCount(bitset[word] & planes[k][word]);
+            }
+            weight += count << k;
+        }
+        return weight;
+    }
+
+    private long weightAnd(long[] bitset, long[] mask) {
+        long weight = 0;
+        for (int k = 0; k < planes.length; k++) {
+            long count = 0;
+            for (int word = 0; word < words; word++) {
+                count += Long.bitCount(bitset[word] & mask[word] & planes[k][word]);
+            }
+            weight += count << k;
+        }
+        return weight;
+    }
+}
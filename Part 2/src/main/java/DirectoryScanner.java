@@ -0,0 +1,125 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This DirectoryScanner class walks a folder tree on a fork-join pool, one task per directory, so large trees are
+ * listed in parallel. Files are handed out through next() as soon as they are found, which lets the Client start
+ * sending the first files while the rest of the tree is still being scanned.
+ *
+ * Symbolic links are not followed, so a link cycle cannot make the scan run forever and a link cannot send files
+ * from outside the folder. Directories that cannot be listed, or fail partway through, are reported and skipped
+ * without stopping the rest of the scan.
+ */
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+
+public class DirectoryScanner {
+    private final Path root;
+    private final ForkJoinPool pool;
+    private final LinkedBlockingQueue<Path> found = new LinkedBlockingQueue<>();
+
+    // Marks the end of the scan in the queue, since the queue cannot hold null
+    private final Path end;
+
+    public DirectoryScanner(Path root, int parallelism) {
+        this.root = root;
+        this.end = root.resolve(".end-of-scan");
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * Starts scanning in the background and returns immediately.
+     */
+    public void start() {
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    new ScanTask(root).invoke();
+                } finally {
+                    found.add(end);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the next regular file found, blocking until one is available, or null once the whole tree is scanned.
+     */
+    public Path next() throws InterruptedException {
+        Path path = found.take();
+        if (path == end) {
+            found.add(end);
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * Returns the path of a found file relative to the scanned folder, always using '/' as the separator.
+     */
+    public String relativeName(Path file) {
+        StringBuilder builder = new StringBuilder();
+        for (Path part : root.relativize(file)) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(part.toString());
+        }
+        return builder.toString();
+    }
+
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        ScanTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subdirectories = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                for (Path entry : entries) {
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        ScanTask task = new ScanTask(entry);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else if (Files.isRegularFile(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        found.add(entry);
+                    }
+                }
+            } catch (IOException e) {
+                System.out.println("Could not scan " + directory + ": " + e.getMessage());
+            } catch (DirectoryIteratorException e) {
+                System.out.println("Could not scan " + directory + ": " + e.getCause().getMessage());
+            }
+
+            for (ScanTask task : subdirectories) {
+                task.join();
+            }
+        }
+    }
+}
@@ -12,28 +12,45 @@
  *
  * It is instantiated with a socket connection, and the transfer protocol is as follows:
  *
- *  1.) Server sends the TRACE_ID and SPAN_ID to the client.
+ *  1.) Server sends the W3C traceparent header of its connection span to the client as a UTF string.
  *
- *  2.) Client sends the name of the folder to store the transferred files in to the server as a String object.
+ *  2.) Client sends the name of the folder to store the transferred files in to the server as a String object, then
+ *  the number of its predicates as an int and the name of each as a UTF string, in the order of their IDs in the
+ *  PredicateRegistry of the client.
  *
- *  3.) Client sends an ArrayList object containing the names of the files that will be transferred to the Server.
- *  The server assumes the file transfer order will be the order of names in the ArrayList.
+ *  3.) Client walks the folder tree, including subfolders, and starts sending files as soon as they are found.
+ *  Files smaller than a threshold are packed together into batches, see step 5.
  *
- *  4.) For each file name in the ArrayList:
+ *  4.) For each file sent on its own, the client sends the FRAME_FILE type as a byte, then:
  *      Client side:
- *      i.) The client sends the SPAN_ID for the file span
- *      ii.) The client fully compresses the file data, then encrypts the data
- *      iii.) The client sends the length of the compressed/encrypted data to the Server,
- *          then sends the compressed/encrypted data.
- *      iv.) The client sends the checksum of the unencrypted file to the server, by first sending the length of the
+ *      i.) The client sends the path of the file relative to the folder, using '/' separators, as a UTF string
+ *      ii.) The client sends the traceparent header of the file span as a UTF string
+ *      iii.) The client streams the file data through compression, then encryption, one chunk at a time
+ *      iv.) The client sends the 64-bit size of the original file, then each chunk of compressed/encrypted data as
+ *          an int length followed by the data. A chunk length of 0 ends the file.
+ *      v.) The client sends the checksum of the unencrypted file to the server, by first sending the length of the
  *          checksum, followed by the checksum itself.
+ *      vi.) The client sends the true and observed bitsets of the file's predicates, as two longs.
  *
  *      Server side:
- *      v.) The server reads the SPAN_ID for the file transfer
- *      vi.) The server reads the length of the compressed/encrypted data, then reads the compressed/encrypted data itself.
- *      vii.) The server decrypts the data, then decompresses it.
- *      viii.) The server reads the length of the checksum from the client, then reads the checksum itself.
- *      ix.) The server compares the checksum from the client to the checksum it calculates from the received data.
+ *      vii.) The server reads the path and checks that it stays inside the transfer folder. Missing subfolders are
+ *          created the first time a file inside them arrives.
+ *      viii.) The server reads the traceparent and starts its own span for the file as a child of the client's
+ *      ix.) The server reads the size of the original file, then reads the chunks until the 0 length.
+ *      x.) The server decrypts and decompresses each chunk as it arrives, writing it straight to disk. A file whose
+ *          length on disk is not the size the client sent fails, even without a checksum.
+ *      xi.) The server reads the length of the checksum from the client, then reads the checksum itself.
+ *      xii.) The server compares the checksum from the client to the checksum it calculates from the received data.
+ *      xiii.) The server reads the predicate bitsets and puts them on its span for the file, where the
+ *          StatisticalDebuggingProcessor counts them.
+ *
+ *  5.) For each batch of small files, the client sends the FRAME_BATCH type as a byte, then the traceparent of the
+ *  batch span, and an index with the number of files followed by the path, 64-bit size and digest of each. The data
+ *  of all the files follows as one stream, framed and compressed/encrypted like a single file. Each file starts where
+ *  the previous one ends, so the server splits the stream back into files in one pass and checks every digest. The
+ *  predicate bitsets of the batch follow the data.
+ *
+ *  6.) Client sends the FRAME_END type once every file has been sent.
  */
 
 import javax.crypto.*;
@@ -42,24 +59,22 @@ import javax.crypto.spec.SecretKeySpec;
 import java.io.*;
 import java.net.Socket;
 import java.security.*;
-import java.time.Duration;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Inflater;
 import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
 
 import io.opentelemetry.api.trace.*;
 import io.opentelemetry.api.metrics.Meter;
 import io.opentelemetry.api.metrics.LongCounter;
 import io.opentelemetry.context.Context;
-import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
-import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
-import io.opentelemetry.sdk.OpenTelemetrySdk;
-import io.opentelemetry.sdk.metrics.SdkMeterProvider;
-import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
-import io.opentelemetry.sdk.resources.Resource;
-import io.opentelemetry.sdk.trace.SdkTracerProvider;
-import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
-import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.context.Scope;
 
 public class FolderTransferRequest implements Runnable {
     Socket client;
@@ -68,37 +83,24 @@ public class FolderTransferRequest implements Runnable {
     DataInputStream dInputStream;
     Cipher cipher;
 
-    private static final OtlpGrpcSpanExporter exporter = OtlpGrpcSpanExporter.builder()
-            .setEndpoint("http://localhost:4317")
-            .build();
+    // The real path of this transfer's folder, and the folders below it that are known to exist
+    Path root;
+    Set<Path> createdFolders = new HashSet<>();
 
-    private static final OtlpGrpcMetricExporter metricExporter = OtlpGrpcMetricExporter.builder()
-            .setEndpoint("http://localhost:4317")
-            .build();
+    // The address and port of the client, the same ID the client puts on its flight recorder events
+    String connectionId;
 
-    static Resource app = Resource.getDefault().toBuilder().put("service.name", "COSC3P95-Part2").build();
+    // The progress of this transfer, as shown by the TransferMonitor
+    TransferMonitor.Progress progress;
 
-    private static final SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
-            .addSpanProcessor(BatchSpanProcessor.builder(exporter).build())
-            .setResource(app)
-            .setSampler(Sampler.alwaysOn())
-            .build();
-    private static final SdkMeterProvider meterProvider = SdkMeterProvider.builder()
-            .setResource(app)
-            .registerMetricReader(PeriodicMetricReader.builder(metricExporter)
-                    .setInterval(Duration.ofSeconds(2))
-                    .build())
-            .build();
+    // The ID in the PredicateRegistry of this JVM of each predicate ID of the client, or -1 if it has no room for it
+    int[] predicateIds;
 
-    private static final OpenTelemetrySdk openTelemetry = OpenTelemetrySdk.builder()
-            .setTracerProvider(tracerProvider)
-            .setMeterProvider(meterProvider)
-            .build();
+    private static final Telemetry telemetry = Telemetry.start("server", 9464);
 
-    private static final Tracer tracer =
-            openTelemetry.getTracer("file-transfer");
+    private static final Tracer tracer = telemetry.tracer("file-transfer");
 
-    private static final Meter meter = openTelemetry.meterBuilder("COSC3P95.Server").build();
+    private static final Meter meter = telemetry.meter("COSC3P95.Server");
 
     private static final LongCounter filesReceivedCounter = meter
             .counterBuilder("files_received_total")
@@ -108,15 +110,21 @@ public class FolderTransferRequest implements Runnable {
             .counterBuilder("checksum_failures_total")
             .setDescription("Number of files where checksum verification failed")
             .build();
+    private static final LongCounter sizeMismatchCounter = meter
+            .counterBuilder("size_mismatches_total")
+            .setDescription("Number of files whose received length differs from the size the client sent")
+            .build();
+
+    private static final StageMetrics stageMetrics = new StageMetrics(meter);
 
-    static Span parentSpan;
-    static Span fileSpan;
+    private static final TransferMonitor monitor = new TransferMonitor(meter);
 
     public FolderTransferRequest(Socket client) throws IOException, NoSuchPaddingException, NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException {
         oInputStream = new ObjectInputStream(client.getInputStream());
         oOutputStream = new ObjectOutputStream(client.getOutputStream());
         dInputStream = new DataInputStream(client.getInputStream());
         this.client = client;
+        connectionId = client.getInetAddress().getHostAddress() + ":" + client.getPort();
 
         byte[] decodedKey = Base64.getDecoder().decode(Server.SECRET_KEY);
         SecretKey key = new SecretKeySpec(decodedKey, 0, decodedKey.length, "AES");
@@ -126,18 +134,28 @@ public class FolderTransferRequest implements Runnable {
     }
 
     @Override
+    @SuppressWarnings("try")
     public void run() {
-        parentSpan = tracer.spanBuilder("server_file_transfer")
+        // The connection span is only ever current on this thread, so concurrent transfers cannot share it
+        Span connectionSpan = tracer.spanBuilder("server_file_transfer")
                 .setSpanKind(SpanKind.SERVER)
                 .startSpan();
 
+        try (Scope scope = connectionSpan.makeCurrent()) {
+            transfer();
+        } finally {
+            connectionSpan.end();
+            telemetry.flushSpans();
+        }
+    }
+
+    private void transfer() {
         String folder = null;
-        ArrayList<String> fileNames = null;
 
-        // Send Span context to client
+        // Send the traceparent of the connection span to the client
         try {
-            oOutputStream.writeObject(parentSpan.getSpanContext().getTraceId());
-            oOutputStream.writeObject(parentSpan.getSpanContext().getSpanId());
+            oOutputStream.writeUTF(TraceHeader.encode(Context.current()));
+            oOutputStream.flush();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -152,18 +170,15 @@ public class FolderTransferRequest implements Runnable {
             e.printStackTrace();
         }
 
-        // Read ArrayList of file names
+        if(folder == null){
+            System.out.println("Something went wrong");
+            return;
+        }
+
         try {
-            fileNames = (ArrayList<String>) oInputStream.readObject();
+            readPredicateNames();
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        if(folder == null || fileNames == null){
-            System.out.println("Something went wrong");
-            parentSpan.end();
             return;
         }
 
@@ -175,71 +190,296 @@ public class FolderTransferRequest implements Runnable {
         }
         System.out.println();
 
+        try {
+            root = newFolder.toPath().toRealPath();
+            createdFolders.add(root);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
         MessageDigest md = null;
         try {
             md = MessageDigest.getInstance("MD5");
         } catch (NoSuchAlgorithmException e) {
             e.printStackTrace();
-            parentSpan.end();
             return;
         }
 
-        for(String fileName : fileNames){
+        progress = monitor.start(connectionId, folder);
+        try {
+            receiveFrames(md);
+        } finally {
+            monitor.finish(progress);
+        }
+    }
+
+    private void receiveFrames(MessageDigest md) {
+        while(true){
             try {
-                // Read span ID
-                String spanId = (String) oInputStream.readObject();
+                // Read the type of the next frame, a single file, a batch of small files, or the end of the transfer
+                int frame = dInputStream.readUnsignedByte();
+                if (frame == Server.FRAME_END) {
+                    break;
+                } else if (frame == Server.FRAME_FILE) {
+                    receiveSingleFile(md);
+                } else if (frame == Server.FRAME_BATCH) {
+                    receiveBatch(md);
+                } else {
+                    throw new IOException("Unknown frame type: " + frame);
+                }
 
-                fileSpan = Span.wrap(SpanContext.createFromRemoteParent(parentSpan.getSpanContext().getTraceId(),
-                        spanId, TraceFlags.getSampled(), TraceState.getDefault()));
+                oOutputStream.writeObject("sync");
+            } catch (IOException e) {
+                // The connection is no longer in step with the client
+                e.printStackTrace();
+                break;
+            }
+        }
+    }
 
-                // Read data length
-                int length = dInputStream.readInt();
+    /**
+     * Reads the names of the client's predicates and registers them, so the bitsets the client sends for each file
+     * can be translated to the predicate IDs of this JVM. The registry is shared by every connection and never
+     * forgets a name, so once it is full the names it has not seen before are dropped from this transfer's spans.
+     */
+    private void readPredicateNames() throws IOException {
+        int count = dInputStream.readInt();
+        if (count < 0 || count > PredicateRegistry.MAX_PREDICATES) {
+            throw new IOException("Invalid number of predicates: " + count);
+        }
+        predicateIds = new int[count];
+        int dropped = 0;
+        for (int id = 0; id < count; id++) {
+            String name = dInputStream.readUTF();
+            try {
+                predicateIds[id] = PredicateRegistry.register(name);
+            } catch (IllegalStateException e) {
+                predicateIds[id] = -1;
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            System.out.println("Ignoring " + dropped + " predicates from " + connectionId + ", "
+                    + PredicateRegistry.MAX_PREDICATES + " predicates are already registered");
+        }
+    }
 
-                byte[] retrievedData = readData(dInputStream, length);
+    /**
+     * Reads the true and observed bitsets the client sends after a file or batch, and puts them on the current span
+     * with the predicate IDs of this JVM.
+     */
+    private void readPredicates() throws IOException {
+        long trueBits = dInputStream.readLong();
+        long observedBits = dInputStream.readLong();
 
-                if(Server.USE_ADVANCED_FEATURES){
-                    byte[] compressedData = decrypt(retrievedData, cipher);
+        Span span = Span.current();
+        if (!span.isRecording()) {
+            return;
+        }
+        long serverTrue = 0;
+        long serverObserved = 0;
+        for (long remaining = observedBits; remaining != 0; remaining &= remaining - 1) {
+            int id = Long.numberOfTrailingZeros(remaining);
+            if (id >= predicateIds.length || predicateIds[id] < 0) {
+                continue;
+            }
+            long bit = 1L << predicateIds[id];
+            serverObserved |= bit;
+            if ((trueBits & (1L << id)) != 0) {
+                serverTrue |= bit;
+            }
+        }
+        span.setAttribute(StatisticalDebuggingProcessor.PREDICATE_BITS, Arrays.asList(serverTrue, serverObserved));
+    }
 
-                    byte[] rawData = decompress(compressedData);
+    /**
+     * Reads the traceparent the client sends for a file or batch, and starts the server side span for it as a child
+     * of the client's span. If the header is missing, the span stays in the trace of the connection.
+     */
+    private Span startFileSpan(String name) throws IOException {
+        Context parent = TraceHeader.decode(dInputStream.readUTF());
+        if (parent == Context.root()) {
+            parent = Context.current();
+        }
+        return tracer.spanBuilder(name)
+                .setParent(parent)
+                .setSpanKind(SpanKind.SERVER)
+                .startSpan();
+    }
 
-                    writeToFile(rawData, folder + "/" + fileName, md);
+    @SuppressWarnings("try")
+    private void receiveSingleFile(MessageDigest md) throws IOException {
+        // Read the path of the file
+        String fileName = dInputStream.readUTF();
 
-                    byte[] clientDigest = readChecksum(dInputStream);
+        Span fileSpan = startFileSpan("receive_file");
+        fileSpan.setAttribute("File.name", fileName);
+        try (Scope scope = fileSpan.makeCurrent()) {
+            receiveSingleFile(fileName, md);
+        } finally {
+            monitor.clearFile(progress);
+            fileSpan.end();
+        }
+    }
 
-                    // Read MD5 hash
-                    byte[] serverDigest = md.digest();
+    private void receiveSingleFile(String fileName, MessageDigest md) throws IOException {
+        Path target = resolvePath(fileName);
 
-                    // Compare checksums
-                    boolean match = compareChecksums(clientDigest, serverDigest);
+        // Read the 64-bit size of the original file, followed by its chunks
+        long size = dInputStream.readLong();
+        monitor.startFile(progress, fileName, size, Span.current());
 
-                    if (match) {
-                        System.out.println("MD5 Checksum matched for file: " + fileName);
-                    } else {
-                        System.out.println("MD5 Checksum DID NOT MATCH for file: " + fileName);
-                    }
-                }
-                else{
-                    writeToFile(retrievedData, folder + "/" + fileName, md);
-                }
+        CountingOutputStream countingOutputStream = new CountingOutputStream(
+                new BufferedOutputStream(openTarget(target), Server.BUFFER_SIZE));
+        try(OutputStream fileOutputStream = new DigestOutputStream(countingOutputStream, md))
+        {
+            if(Server.USE_ADVANCED_FEATURES){
+                receiveFile(dInputStream, fileOutputStream, size);
+            }
+            else{
+                writeToFile(dInputStream, fileOutputStream, size);
+            }
+        }
+        monitor.endFile(progress);
+        checkSize(fileName, size, countingOutputStream.count);
 
-                oOutputStream.writeObject("sync");
+        if(Server.USE_ADVANCED_FEATURES){
+            byte[] clientDigest = readChecksum(dInputStream);
 
-                System.out.println("Finished transferring: " + fileName + "\n");
+            // Read MD5 hash
+            byte[] serverDigest = md.digest();
 
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
+            // Compare checksums
+            TransferEvents.Verify verifyEvent = TransferEvents.begin(new TransferEvents.Verify());
+            long start = System.nanoTime();
+            boolean match = compareChecksums(clientDigest, serverDigest);
+            verifyEvent.files = 1;
+            verifyEvent.failures = match ? 0 : 1;
+            verifyEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, size, System.nanoTime() - start);
+
+            if (match) {
+                System.out.println("MD5 Checksum matched for file: " + fileName);
+            } else {
+                System.out.println("MD5 Checksum DID NOT MATCH for file: " + fileName);
             }
         }
+        else{
+            md.reset();
+        }
+        readPredicates();
+
+        System.out.println("Finished transferring: " + fileName + "\n");
+    }
+
+    /**
+     * Fails the current file if the number of bytes written is not the size the client sent for it, which would
+     * otherwise go unnoticed without a checksum.
+     */
+    private void checkSize(String fileName, long size, long written) {
+        Span span = Span.current();
+        span.setAttribute("bytes.written", written);
+        if (written != size) {
+            sizeMismatchCounter.add(1);
+            span.setStatus(StatusCode.ERROR, "Received " + written + " bytes, expected " + size);
+            System.out.println("Size DID NOT MATCH for file: " + fileName + " (received " + written
+                    + " bytes, expected " + size + ")");
+        }
+    }
 
-        parentSpan.end();
-        openTelemetry.getSdkTracerProvider().forceFlush();
+    /**
+     * Receives a batch of small files. The index of paths, sizes and digests comes first, then the data of every file
+     * as one stream, which is split back into the files in a single pass as it is inflated.
+     */
+    @SuppressWarnings("try")
+    private void receiveBatch(MessageDigest md) throws IOException {
+        Span batchSpan = startFileSpan("receive_batch");
+        try (Scope scope = batchSpan.makeCurrent()) {
+            receiveBatchFiles(md);
+        } finally {
+            monitor.clearFile(progress);
+            batchSpan.end();
+        }
+    }
+
+    private void receiveBatchFiles(MessageDigest md) throws IOException {
+        // Read the batch index
+        int count = dInputStream.readInt();
+        if (count <= 0 || count > Server.MAX_BATCH_FILES) {
+            throw new IOException("Invalid batch size: " + count);
+        }
+        String[] fileNames = new String[count];
+        Path[] targets = new Path[count];
+        long[] sizes = new long[count];
+        byte[][] clientDigests = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            fileNames[i] = dInputStream.readUTF();
+            targets[i] = resolvePath(fileNames[i]);
+            sizes[i] = dInputStream.readLong();
+            if (sizes[i] < 0) {
+                throw new IOException("Invalid file size in batch: " + sizes[i]);
+            }
+            clientDigests[i] = new byte[dInputStream.readUnsignedByte()];
+            dInputStream.readFully(clientDigests[i]);
+        }
+
+        // Read the 64-bit size of the batch data, followed by its chunks
+        long size = dInputStream.readLong();
+        monitor.startFile(progress, "batch of " + count + " files", size, Span.current());
+
+        BatchOutputStream batchOutputStream = new BatchOutputStream(targets, sizes, md);
+        try {
+            if(Server.USE_ADVANCED_FEATURES){
+                receiveFile(dInputStream, batchOutputStream, size);
+            }
+            else{
+                writeToFile(dInputStream, batchOutputStream, size);
+            }
+        } finally {
+            batchOutputStream.close();
+        }
+        monitor.endFile(progress);
+        readPredicates();
+
+        TransferEvents.Verify verifyEvent = TransferEvents.begin(new TransferEvents.Verify());
+        long start = System.nanoTime();
+        verifyEvent.files = count;
+        verifyEvent.failures = compareBatchChecksums(fileNames, clientDigests, batchOutputStream.digests);
+        verifyEvent.record(connectionId, StageMetrics.codec(Server.USE_ADVANCED_FEATURES), size,
+                System.nanoTime() - start);
+        System.out.println("Finished transferring batch of " + count + " files\n");
+    }
+
+    /**
+     * Compares the digest of every file in a batch under one span, counting each file as received or failed.
+     * Returns the number of files whose digest did not match.
+     */
+    private int compareBatchChecksums(String[] fileNames, byte[][] clientDigests, byte[][] serverDigests) {
+        Span span = tracer.spanBuilder("checksum_compare")
+                .setSpanKind(SpanKind.SERVER)
+                .setAttribute("batch.files", fileNames.length)
+                .startSpan();
+        int failures = 0;
+        for (int i = 0; i < fileNames.length; i++) {
+            boolean match = serverDigests[i] != null && MessageDigest.isEqual(clientDigests[i], serverDigests[i]);
+            if (match) {
+                filesReceivedCounter.add(1);
+                System.out.println("MD5 Checksum matched for file: " + fileNames[i]);
+            } else {
+                failures++;
+                checksumFailCounter.add(1);
+                System.out.println("MD5 Checksum DID NOT MATCH for file: " + fileNames[i]);
+            }
+        }
+        span.setAttribute("pred.checksum_failed", failures > 0);
+        span.setAttribute("batch.failures", failures);
+        span.setAttribute("checksum.result", failures == 0);
+        span.end();
+        return failures;
     }
 
     private boolean compareChecksums(byte[] clientDigest, byte[] serverDigest) {
         Span span = tracer.spanBuilder("checksum_compare")
-                .setParent(Context.current().with(fileSpan))
                 .setSpanKind(SpanKind.SERVER)
                 .startSpan();
         boolean result = false;
@@ -263,7 +503,6 @@ public class FolderTransferRequest implements Runnable {
 
     private byte[] readChecksum(DataInputStream dInputStream) throws IOException {
         Span span = tracer.spanBuilder("read_checksum")
-                .setParent(Context.current().with(fileSpan))
                 .setSpanKind(SpanKind.SERVER)
                 .startSpan();
         byte[] digest;
@@ -279,94 +518,342 @@ public class FolderTransferRequest implements Runnable {
         return digest;
     }
 
-    private void writeToFile(byte[] rawData, String file, MessageDigest md) throws IOException {
-        Span span = tracer.spanBuilder("write_file")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.SERVER)
-                .setAttribute("File_size", rawData.length)
-                .startSpan();
-        ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(rawData);
-        try(DigestInputStream digestInputStream = new DigestInputStream(byteArrayInputStream, md);
-            FileOutputStream fileOutputStream = new FileOutputStream(file))
-        {
-            byte[] buffer = new byte[Server.BUFFER_SIZE];
-            int bytes;
-            span.addEvent("Writing data to " + file);
-            while ((bytes = digestInputStream.read(buffer)) != -1) {
-                fileOutputStream.write(buffer, 0, bytes);
+    /**
+     * Streams one file, or the data of a batch, from the socket to disk. Each chunk is decrypted and inflated as soon as it arrives, so only
+     * one chunk of the file is ever held in memory. If the compressed stream turns out to be corrupt, the rest of the
+     * file's chunks are still read so the connection stays in step with the client, and the checksum comparison
+     * reports the failure.
+     */
+    private void receiveFile(DataInputStream dInputStream, OutputStream fileOutputStream, long size) throws IOException {
+        Span readSpan = startStage("read_data");
+        Span decryptSpan = startStage("decrypt_data");
+        Span decompressSpan = startStage("decompress_data");
+        Span writeSpan = startStage("write_file");
+        TransferEvents.Receive receiveEvent = TransferEvents.begin(new TransferEvents.Receive());
+        TransferEvents.Decrypt decryptEvent = TransferEvents.begin(new TransferEvents.Decrypt());
+        TransferEvents.Inflate inflateEvent = TransferEvents.begin(new TransferEvents.Inflate());
+        TransferEvents.Write writeEvent = TransferEvents.begin(new TransferEvents.Write());
+        writeSpan.setAttribute("File_size", size);
+        writeSpan.addEvent("Writing data");
+
+        byte[] buffer = new byte[Server.CHUNK_SIZE];
+        long totalRead = 0;
+        boolean corrupted = false;
+        long readNanos = 0;
+        long decryptNanos = 0;
+        long inflateNanos = 0;
+
+        // The inflater is not closed with the stream, since closing it would inflate a corrupt stream once more
+        Inflater inflater = new Inflater();
+        StageMetrics.TimedOutputStream timedOutputStream = new StageMetrics.TimedOutputStream(fileOutputStream);
+        try {
+            InflaterOutputStream inflaterOutputStream = new InflaterOutputStream(timedOutputStream, inflater);
+            int length;
+            long start = System.nanoTime();
+            while ((length = readData(dInputStream, buffer)) > 0) {
+                totalRead += length;
+                progress.add(length);
+                readNanos += System.nanoTime() - start;
+                if (corrupted) {
+                    start = System.nanoTime();
+                    continue;
+                }
+
+                start = System.nanoTime();
+                byte[] compressedData = decrypt(buffer, length, cipher);
+                decryptNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                try {
+                    decompress(inflaterOutputStream, compressedData);
+                    inflateNanos += System.nanoTime() - start;
+                } catch (ZipException e) {
+                    e.printStackTrace();
+                    decompressSpan.recordException(e);
+                    corrupted = true;
+                }
+                start = System.nanoTime();
+            }
+            readNanos += System.nanoTime() - start;
+
+            if (!corrupted) {
+                try {
+                    start = System.nanoTime();
+                    inflaterOutputStream.finish();
+                    inflateNanos += System.nanoTime() - start;
+                    decompressSpan.addEvent("Decompression finished");
+                } catch (ZipException e) {
+                    e.printStackTrace();
+                    decompressSpan.recordException(e);
+                }
+            }
+            decryptSpan.addEvent("Decryption complete");
+            writeSpan.addEvent("Write complete");
+
+            stageMetrics.record(StageMetrics.Stage.READ_DATA, size, StageMetrics.CODEC_DEFLATE, totalRead, readNanos);
+            receiveEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, totalRead, readNanos);
+            stageMetrics.record(StageMetrics.Stage.DECRYPT_DATA, size, StageMetrics.CODEC_DEFLATE, totalRead,
+                    decryptNanos);
+            decryptEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, totalRead, decryptNanos);
+            if (!corrupted) {
+                // The inflater writes straight into the file, so the write time is taken off the inflate time
+                long writeNanos = timedOutputStream.nanos;
+                stageMetrics.record(StageMetrics.Stage.DECOMPRESS_DATA, size, StageMetrics.CODEC_DEFLATE, size,
+                        inflateNanos - writeNanos);
+                inflateEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, size, inflateNanos - writeNanos);
+                stageMetrics.record(StageMetrics.Stage.WRITE_FILE, size, StageMetrics.CODEC_DEFLATE, size,
+                        writeNanos);
+                writeEvent.record(connectionId, StageMetrics.CODEC_DEFLATE, size, writeNanos);
             }
-            span.addEvent("Write complete");
         } catch (IOException e) {
-            span.recordException(e);
+            writeSpan.recordException(e);
             throw e;
         } finally {
-            span.end();
+            inflater.end();
+            resetCipher(decryptSpan);
+            readSpan.setAttribute("bytes.read", totalRead);
+            readSpan.end();
+            decryptSpan.end();
+            decompressSpan.end();
+            writeSpan.end();
         }
     }
 
-    private byte[] decompress(byte[] data) {
-        Span span = tracer.spanBuilder("decompress_data")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.SERVER)
-                .startSpan();
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try(InflaterOutputStream inflaterOutputStream = new InflaterOutputStream(byteArrayOutputStream))
-        {
-            inflaterOutputStream.write(data);
-            span.addEvent("Decompression finished");
+    /**
+     * Streams the chunks of a file that was sent without compression or encryption straight to disk.
+     */
+    private void writeToFile(DataInputStream dInputStream, OutputStream fileOutputStream, long size) throws IOException {
+        Span span = startStage("write_file");
+        span.setAttribute("File_size", size);
+        TransferEvents.Receive receiveEvent = TransferEvents.begin(new TransferEvents.Receive());
+        TransferEvents.Write writeEvent = TransferEvents.begin(new TransferEvents.Write());
+
+        byte[] buffer = new byte[Server.CHUNK_SIZE];
+        long readNanos = 0;
+        long writeNanos = 0;
+        try {
+            int length;
+            span.addEvent("Writing data");
+            long start = System.nanoTime();
+            while ((length = readData(dInputStream, buffer)) > 0) {
+                progress.add(length);
+                readNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                fileOutputStream.write(buffer, 0, length);
+                writeNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+            }
+            readNanos += System.nanoTime() - start;
+            span.addEvent("Write complete");
+
+            stageMetrics.record(StageMetrics.Stage.READ_DATA, size, StageMetrics.CODEC_NONE, size, readNanos);
+            receiveEvent.record(connectionId, StageMetrics.CODEC_NONE, size, readNanos);
+            stageMetrics.record(StageMetrics.Stage.WRITE_FILE, size, StageMetrics.CODEC_NONE, size, writeNanos);
+            writeEvent.record(connectionId, StageMetrics.CODEC_NONE, size, writeNanos);
         } catch (IOException e) {
-            e.printStackTrace();
             span.recordException(e);
+            throw e;
         } finally {
             span.end();
         }
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
 
-        return byteArrayOutputStream.toByteArray();
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
     }
 
-    private byte[] decrypt(byte[] data, Cipher cipher) {
-        Span span = tracer.spanBuilder("decrypt_data")
-                .setParent(Context.current().with(fileSpan))
-                .setSpanKind(SpanKind.SERVER)
-                .startSpan();
+    /**
+     * Splits the data of a batch back into its files while it is written, using the sizes from the batch index. The
+     * digest of each file is taken as its last byte is written, so no file is read twice.
+     */
+    class BatchOutputStream extends OutputStream {
+        private final Path[] targets;
+        private final long[] sizes;
+        private final MessageDigest md;
+        private final byte[][] digests;
+        private int index = -1;
+        private long remaining = 0;
+        private OutputStream current;
+
+        BatchOutputStream(Path[] targets, long[] sizes, MessageDigest md) {
+            this.targets = targets;
+            this.sizes = sizes;
+            this.md = md;
+            this.digests = new byte[targets.length][];
+        }
 
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        try(CipherOutputStream cipherOutputStream = new CipherOutputStream(byteArrayOutputStream, cipher))
-        {
-            cipherOutputStream.write(data);
-            span.addEvent("Decryption complete");
-        } catch (IOException e) {
-            e.printStackTrace();
-            span.recordException(e);
-        } finally {
-            span.end();
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                nextFileIfComplete();
+                if (current == null) {
+                    throw new IOException("Batch data is longer than its index");
+                }
+                int length = (int) Math.min(len, remaining);
+                current.write(b, off, length);
+                md.update(b, off, length);
+                remaining -= length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        /**
+         * Finishes the current file once all of its bytes are written, and opens the next one. Empty files are
+         * created and finished straight away.
+         */
+        private void nextFileIfComplete() throws IOException {
+            while (remaining == 0 && index < targets.length) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                    digests[index] = md.digest();
+                }
+                index++;
+                if (index < targets.length) {
+                    current = new BufferedOutputStream(openTarget(targets[index]), Server.BUFFER_SIZE);
+                    remaining = sizes[index];
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Files missing from a truncated batch keep a null digest, and fail the comparison
+            try {
+                nextFileIfComplete();
+            } finally {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                md.reset();
+            }
+        }
+    }
+
+    /**
+     * Resolves a relative path sent by the client inside the transfer folder. Returns null for anything that would
+     * end up outside of it, such as absolute paths or ".." segments, in which case the file is read and discarded.
+     */
+    private Path resolvePath(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.indexOf('\\') >= 0 || name.indexOf(':') >= 0) {
+            System.out.println("Rejected path: " + name);
+            return null;
+        }
+
+        Path target;
+        try {
+            target = root.resolve(name).normalize();
+        } catch (InvalidPathException e) {
+            System.out.println("Rejected path: " + name);
+            return null;
+        }
+        if (!target.startsWith(root) || target.equals(root)) {
+            System.out.println("Rejected path: " + name);
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * Opens the file a transfer is written to, creating its parent folders the first time they are needed. Folders
+     * are checked by their real path before and after creation, so a symbolic link cannot redirect the file outside
+     * the transfer folder.
+     */
+    private OutputStream openTarget(Path file) throws IOException {
+        if (file != null) {
+            Path parent = file.getParent();
+            if (!createdFolders.contains(parent)) {
+                Path existing = parent;
+                while (!Files.exists(existing)) {
+                    existing = existing.getParent();
+                }
+                if (existing.toRealPath().startsWith(root)) {
+                    Files.createDirectories(parent);
+                    if (parent.toRealPath().startsWith(root)) {
+                        createdFolders.add(parent);
+                    }
+                }
+            }
+            if (createdFolders.contains(parent) && !Files.isSymbolicLink(file)) {
+                return new FileOutputStream(file.toFile());
+            }
+            System.out.println("Rejected path: " + file);
         }
 
-        return byteArrayOutputStream.toByteArray();
+        // Discard the data of a rejected file
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
     }
 
-    private byte[] readData(DataInputStream dInputStream, int length) throws IOException {
-        Span span = tracer.spanBuilder("read_data")
-                .setParent(Context.current().with(fileSpan))
+    private Span startStage(String name) {
+        return tracer.spanBuilder(name)
                 .setSpanKind(SpanKind.SERVER)
                 .startSpan();
-        byte[] retrievedData = new byte[length];
+    }
 
-        // Read data
-        int totalRead = 0;
-        int read;
+    private void decompress(InflaterOutputStream inflaterOutputStream, byte[] data) throws IOException {
+        inflaterOutputStream.write(data);
+    }
+
+    private byte[] decrypt(byte[] data, int length, Cipher cipher) {
+        byte[] decrypted = cipher.update(data, 0, length);
+        return decrypted == null ? new byte[0] : decrypted;
+    }
+
+    /**
+     * Returns the cipher to its initial IV so the next file decrypts independently, as the client does.
+     */
+    private void resetCipher(Span span) {
         try {
-            while(totalRead < length && (read = dInputStream.read(retrievedData, totalRead, length - totalRead)) != -1) {
-                totalRead += read;
-            }
-            span.setAttribute("bytes.read", totalRead);
-        } catch (IOException e) {
+            cipher.doFinal();
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
             span.recordException(e);
-            throw e;
-        } finally {
-            span.end();
         }
-        return retrievedData;
     }
-}
\ No newline at end of file
+
+    /**
+     * Reads the next chunk of a file into the buffer and returns its length, or 0 once the file is complete.
+     */
+    private int readData(DataInputStream dInputStream, byte[] buffer) throws IOException {
+        int length = dInputStream.readInt();
+        if (length < 0 || length > buffer.length) {
+            throw new IOException("Invalid chunk length: " + length);
+        }
+        dInputStream.readFully(buffer, 0, length);
+        return length;
+    }
+}
@@ -14,14 +14,47 @@
  * 10 small files (5 KB to 300 KB)
  * 7 medium files (1 MB to 10 MB)
  * 3 large files (50 MB to 100 MB)
+ *
+ * Each file is split into chunks of generate.chunkNumbers random numbers, which are formatted on generate.threads
+ * threads (default one per core) and written to the file in order through a FileChannel. The digits go straight into
+ * the byte buffer of the chunk, so no String is made for a number. Every chunk gets a SplittableRandom of its own,
+ * split off in order from the one of its file, so the same generate.seed gives the same files whatever the number of
+ * threads. Without a seed, a random one is used and printed. The chunks waiting to be written are held to
+ * generate.maxPendingBytes (default 64 MB) in all, however many threads there are.
  */
 
 import java.io.*;
-import java.util.Random;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GenerateFiles {
+    static int THREADS = Integer.getInteger("generate.threads", Runtime.getRuntime().availableProcessors());
+    static int CHUNK_NUMBERS = Integer.getInteger("generate.chunkNumbers", 1 << 20);
+    static long MAX_PENDING_BYTES = Long.getLong("generate.maxPendingBytes", 64L << 20);
+
+    // The longest number written is -2147483648
+    private static final int MAX_LENGTH = 11;
+    private static final byte[] MIN_VALUE = String.valueOf(Integer.MIN_VALUE).getBytes();
 
-    public static void main(String[] args) {
+    // The two digits of every number from 00 to 99
+    private static final byte[] DIGIT_PAIRS = new byte[200];
+
+    static {
+        for (int i = 0; i < 100; i++) {
+            DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+            DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
         if(args.length < 1){
             System.out.println("Please provide a folder name");
             System.exit(1);
@@ -36,48 +69,128 @@ public class GenerateFiles {
             System.out.println("Folder already exists: " + folder);
         }
 
-        Random random = new Random();
+        long seed = Long.getLong("generate.seed", new SplittableRandom().nextLong());
+        System.out.println("Seed: " + seed);
+        SplittableRandom random = new SplittableRandom(seed);
 
-        // Generate small files - 5 KB to 300 KB
-        for(int i = 0; i < 10; i++){
-            try(BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/" + (char) (i+65) + ".txt"))) {
-                int nums = (int) (random.nextDouble() * (1024 * 295) + (5 * 1024));
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int i = 0; i < 20; i++) {
+                SplittableRandom fileRandom = random.split();
+                int nums;
+                if (i < 10) {
+                    // Generate small files - 5 KB to 300 KB
+                    nums = (int) (fileRandom.nextDouble() * (1024 * 295) + (5 * 1024));
+                } else if (i < 17) {
+                    // Generate medium files - 1 MB to 10 MB
+                    nums = (int) (fileRandom.nextDouble() * (1024 * 1024 * 9) + (1024 * 1024));
+                } else {
+                    // Generate large files - 50 MB to 100 MB
+                    nums = (int) (fileRandom.nextDouble() * (1024 * 1024 * 50) + (1024 * 1024 * 50));
+                }
 
-                for(int j = 0; j < nums; j++){
-                    writer.write(String.valueOf(random.nextInt()));
+                try {
+                    writeFile(new File(folder, (char) (i + 65) + ".txt"), nums, fileRandom, pool);
+                } catch (IOException | ExecutionException e) {
+                    e.printStackTrace();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                System.out.println("Finished Writing File: " + i);
             }
-            System.out.println("Finished Writing File: " + i);
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        // Generate small files - 1 MB to 10 MB
-        for(int i = 10; i < 17; i++){
-            try(BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/" + (char) (i+65) + ".txt"))) {
-                int nums = (int) (random.nextDouble() * (1024 * 1024 * 9) + (1024 * 1024));
-
-                for(int j = 0; j < nums; j++){
-                    writer.write(String.valueOf(random.nextInt()));
+    /**
+     * Writes the given count of random numbers to the file, formatting the chunks in parallel and writing them in
+     * order. A chunk is only submitted once the buffers of the chunks before it that are not written yet, and its
+     * own, fit in MAX_PENDING_BYTES; otherwise the oldest are written first. One chunk is always allowed, so a chunk
+     * larger than the budget still gets written.
+     */
+    private static void writeFile(File file, int nums, SplittableRandom random, ExecutorService pool)
+            throws IOException, InterruptedException, ExecutionException {
+        Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+        Deque<Long> pendingSizes = new ArrayDeque<>();
+        long pendingBytes = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int first = 0; first < nums; first += CHUNK_NUMBERS) {
+                int count = Math.min(CHUNK_NUMBERS, nums - first);
+                long size = (long) count * MAX_LENGTH;
+                while (!pending.isEmpty() && pendingBytes + size > MAX_PENDING_BYTES) {
+                    write(channel, pending.poll().get());
+                    pendingBytes -= pendingSizes.poll();
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+
+                SplittableRandom chunkRandom = random.split();
+                pending.add(pool.submit(() -> formatChunk(chunkRandom, count)));
+                pendingSizes.add(size);
+                pendingBytes += size;
+            }
+            while (!pending.isEmpty()) {
+                write(channel, pending.poll().get());
             }
-            System.out.println("Finished Writing File: " + i);
         }
+    }
 
-        // Generate small files - 50 MB to 100 MB
-        for(int i = 17; i < 20; i++){
-            try(BufferedWriter writer = new BufferedWriter(new FileWriter(folder + "/" + (char) (i+65) + ".txt"))) {
-                int nums = (int) (random.nextDouble() * (1024 * 1024 * 50) + (1024 * 1024 * 50));
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
 
-                for(int j = 0; j < nums; j++){
-                    writer.write(String.valueOf(random.nextInt()));
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-            System.out.println("Finished Writing File: " + i);
+    /**
+     * Returns the given count of random numbers, written one after the other in decimal.
+     */
+    static ByteBuffer formatChunk(SplittableRandom random, int count) {
+        byte[] buffer = new byte[count * MAX_LENGTH];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            position = putInt(buffer, position, random.nextInt());
+        }
+        return ByteBuffer.wrap(buffer, 0, position);
+    }
+
+    /**
+     * Writes the value in decimal at the position, the same as String.valueOf would, and returns the position after
+     * it. The digits are written from the end, two at a time.
+     */
+    static int putInt(byte[] buffer, int position, int value) {
+        if (value == Integer.MIN_VALUE) {
+            System.arraycopy(MIN_VALUE, 0, buffer, position, MIN_VALUE.length);
+            return position + MIN_VALUE.length;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+
+        int end = position + digits(value);
+        int i = end;
+        while (value >= 100) {
+            int quotient = value / 100;
+            int pair = (value - quotient * 100) * 2;
+            buffer[--i] = DIGIT_PAIRS[pair + 1];
+            buffer[--i] = DIGIT_PAIRS[pair];
+            value = quotient;
+        }
+        if (value >= 10) {
+            buffer[--i] = DIGIT_PAIRS[value * 2 + 1];
+            buffer[--i] = DIGIT_PAIRS[value * 2];
+        } else {
+            buffer[--i] = (byte) ('0' + value);
+        }
+        return end;
+    }
+
+    /**
+     * Returns the number of decimal digits of a value that is not negative.
+     */
+    private static int digits(int value) {
+        int digits = 1;
+        for (long limit = 10; limit <= value; limit *= 10) {
+            digits++;
         }
+        return digits;
     }
 }
@@ -0,0 +1,231 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This InstrumentationBenchmark class measures what the tracing and metrics cost the transfer. It sends the same
+ * folder with instrumentation in each of these modes:
+ *
+ *      on          every span is recorded and processed
+ *      sampled     1% of files are recorded, the rest get non-recording spans
+ *      off         telemetry.enabled=false, every tracer and meter is a no-op
+ *
+ * The telemetry settings are read once per JVM, so each mode runs in its own child JVM with a Server on a spare port
+ * and repeated Client transfers. Spans go to the none backend, so the numbers are the cost of the instrumentation
+ * rather than of the exporter. Each mode reports its throughput and the heap allocated per MB of file data, which is
+ * counted from the heap in use plus whatever the garbage collector has freed.
+ *
+ * Each child works in a temporary folder, which holds the files its Server receives and is deleted afterwards. A
+ * child that has not finished after benchmark.timeoutSeconds (default 600) is killed and its mode reported as failed.
+ *
+ * Usage: java InstrumentationBenchmark <folder> [iterations]
+ */
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+public class InstrumentationBenchmark {
+    static int PORT = Integer.getInteger("benchmark.port", 5600);
+    static int WARMUP = Integer.getInteger("benchmark.warmup", 2);
+    static long TIMEOUT_SECONDS = Long.getLong("benchmark.timeoutSeconds", 600);
+
+    static final String[] MODES = {"on", "sampled", "off"};
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 4 && args[0].equals("--child")) {
+            runChild(args[1], args[2], Integer.parseInt(args[3]));
+            return;
+        }
+        if (args.length < 1) {
+            System.out.println("Please enter the name of the folder to transfer!");
+            System.exit(1);
+        }
+
+        String folder = new File(args[0]).getAbsolutePath();
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.printf("%-10s %12s %16s%n", "mode", "MB/s", "alloc MB per MB");
+        for (String mode : MODES) {
+            String result = launchChild(mode, folder, iterations);
+            if (result == null) {
+                System.out.printf("%-10s %12s %16s%n", mode, "failed", "-");
+                continue;
+            }
+            String[] parts = result.split(" ");
+            System.out.printf("%-10s %12.1f %16.3f%n", mode,
+                    Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        }
+    }
+
+    /**
+     * Runs one mode in a child JVM and returns its RESULT line, or null if it failed.
+     */
+    private static String launchChild(String mode, String folder, int iterations)
+            throws IOException, InterruptedException {
+        Path workDir = Files.createTempDirectory("benchmark-" + mode + "-");
+        File output = workDir.resolve("output.txt").toFile();
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Dtelemetry.backend=none");
+        command.add("-Dbenchmark.port=" + PORT);
+        command.add("-Dbenchmark.warmup=" + WARMUP);
+        if (mode.equals("sampled")) {
+            command.add("-Dtelemetry.sampleRatio=0.01");
+        } else if (mode.equals("off")) {
+            command.add("-Dtelemetry.enabled=false");
+        }
+        command.add("InstrumentationBenchmark");
+        command.add("--child");
+        command.add(mode);
+        command.add(folder);
+        command.add(Integer.toString(iterations));
+
+        try {
+            Process process = new ProcessBuilder(command)
+                    .directory(workDir.toFile())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output)
+                    .start();
+            if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                System.out.println("Mode " + mode + " did not finish within " + TIMEOUT_SECONDS + " seconds");
+                return null;
+            }
+
+            try (BufferedReader reader = new BufferedReader(new FileReader(output))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        return line;
+                    }
+                }
+            }
+            System.out.println("Mode " + mode + " failed:");
+            try (Stream<String> lines = Files.lines(output.toPath())) {
+                lines.limit(20).forEach(System.out::println);
+            }
+            return null;
+        } finally {
+            delete(workDir);
+        }
+    }
+
+    /**
+     * Deletes the folder and everything in it.
+     */
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Runs in the child JVM: starts a Server, sends the folder a few times to warm up, then times the rest.
+     */
+    private static void runChild(String mode, String folder, int iterations) throws Exception {
+        Thread server = new Thread(() -> new Server(PORT), "benchmark-server");
+        server.setDaemon(true);
+        server.start();
+
+        // A probe connection would end the Server's accept loop, so just give it time to bind
+        Thread.sleep(1000);
+
+        long folderBytes;
+        try (Stream<Path> files = Files.walk(new File(folder).toPath())) {
+            folderBytes = files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+
+        for (int i = 0; i < WARMUP; i++) {
+            new Client("localhost", PORT, folder);
+        }
+
+        AllocationCounter allocation = new AllocationCounter();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            new Client("localhost", PORT, folder);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocation.allocated();
+
+        double megabytes = (double) folderBytes * iterations / (1024.0 * 1024.0);
+        double throughput = megabytes / (elapsed / 1e9);
+        double allocatedPerMegabyte = allocated / (1024.0 * 1024.0) / megabytes;
+
+        System.out.println("RESULT " + mode + " " + throughput + " " + allocatedPerMegabyte);
+        Telemetry.shutdown();
+        System.exit(0);
+    }
+
+    /**
+     * Counts the bytes allocated on the heap since it was created: the growth of the heap plus everything the
+     * garbage collector has freed in between, as reported by its notifications.
+     */
+    static class AllocationCounter implements NotificationListener {
+        private final long startUsed;
+        private long freed;
+
+        AllocationCounter() {
+            startUsed = heapUsed();
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                if (collector instanceof NotificationEmitter) {
+                    ((NotificationEmitter) collector).addNotificationListener(this, null, null);
+                }
+            }
+        }
+
+        @Override
+        public synchronized void handleNotification(Notification notification, Object handback) {
+            if (!notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                return;
+            }
+            GarbageCollectionNotificationInfo info =
+                    GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            Map<String, MemoryUsage> before = info.getGcInfo().getMemoryUsageBeforeGc();
+            Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+            for (Map.Entry<String, MemoryUsage> pool : before.entrySet()) {
+                MemoryUsage afterPool = after.get(pool.getKey());
+                if (afterPool != null) {
+                    freed += pool.getValue().getUsed() - afterPool.getUsed();
+                }
+            }
+        }
+
+        long allocated() throws InterruptedException {
+            // Notifications arrive on their own thread, give the last ones a moment
+            Thread.sleep(200);
+            synchronized (this) {
+                return heapUsed() - startUsed + freed;
+            }
+        }
+
+        private static long heapUsed() {
+            return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        }
+    }
+}
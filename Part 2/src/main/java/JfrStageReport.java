@@ -0,0 +1,102 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This JfrStageReport program reads a Flight Recorder file written by the Client or Server and prints one line per
+ * transfer stage: how many files went through it, how many bytes, the active time and the throughput that gives,
+ * and the mean and worst wall time per file. A stage whose wall time is far above its active time spent most of its
+ * time waiting, on the disk, the network or the other side of the read-ahead queue.
+ *
+ * Usage: java JfrStageReport <recording.jfr>
+ */
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class JfrStageReport {
+
+    static class StageTotals {
+        long events;
+        long bytes;
+        long activeNanos;
+        long wallNanos;
+        long maxWallNanos;
+        long failures;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Please enter the name of the recording to summarize!");
+            System.exit(1);
+        }
+
+        Map<String, StageTotals> stages = summarize(Paths.get(args[0]));
+        if (stages.isEmpty()) {
+            System.out.println("No transfer events found in " + args[0]);
+            return;
+        }
+
+        System.out.printf("%-10s %8s %12s %12s %10s %14s %14s%n",
+                "stage", "files", "MB", "active s", "MB/s", "mean wall ms", "max wall ms");
+        for (Map.Entry<String, StageTotals> entry : stages.entrySet()) {
+            StageTotals totals = entry.getValue();
+            double megabytes = totals.bytes / (1024.0 * 1024.0);
+            double activeSeconds = totals.activeNanos / 1e9;
+            System.out.printf("%-10s %8d %12.2f %12.3f %10s %14.3f %14.3f%n",
+                    entry.getKey(),
+                    totals.events,
+                    megabytes,
+                    activeSeconds,
+                    activeSeconds > 0 ? String.format("%.1f", megabytes / activeSeconds) : "-",
+                    totals.wallNanos / 1e6 / totals.events,
+                    totals.maxWallNanos / 1e6);
+        }
+
+        StageTotals verify = stages.get("Verify");
+        if (verify != null) {
+            System.out.println();
+            System.out.println("Checksum failures: " + verify.failures);
+        }
+    }
+
+    /**
+     * Adds up the transfer events in the recording by stage, in alphabetical order of the stage name.
+     */
+    static Map<String, StageTotals> summarize(Path recording) throws IOException {
+        Map<String, StageTotals> stages = new TreeMap<>();
+
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (!name.startsWith(TransferEvents.PREFIX)) {
+                    continue;
+                }
+
+                StageTotals totals = stages.computeIfAbsent(name.substring(TransferEvents.PREFIX.length()),
+                        stage -> new StageTotals());
+                long wallNanos = event.getDuration().toNanos();
+                totals.events++;
+                totals.bytes += event.getLong("bytes");
+                totals.activeNanos += event.getLong("activeTime");
+                totals.wallNanos += wallNanos;
+                totals.maxWallNanos = Math.max(totals.maxWallNanos, wallNanos);
+                if (event.hasField("failures")) {
+                    totals.failures += event.getInt("failures");
+                }
+            }
+        }
+        return stages;
+    }
+}
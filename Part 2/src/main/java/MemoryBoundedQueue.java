@@ -0,0 +1,70 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This MemoryBoundedQueue class is the hand-off point between the Client's read-ahead thread and the thread that
+ * writes to the socket. Instead of limiting the number of queued items, it limits the number of bytes they hold, so
+ * a folder of large files cannot exhaust the heap while a folder of small files can still be read far ahead.
+ *
+ * The bytes of an item stay reserved until the consumer calls release(), so the budget also covers the item that is
+ * currently being sent. A single item larger than the whole budget is still accepted once the queue is empty, so
+ * the transfer can never deadlock on one oversized file.
+ */
+
+import java.util.ArrayDeque;
+
+public class MemoryBoundedQueue<T> {
+    private final long capacityBytes;
+    private final ArrayDeque<T> items = new ArrayDeque<>();
+    private long usedBytes = 0;
+
+    public MemoryBoundedQueue(long capacityBytes) {
+        if (capacityBytes <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacityBytes);
+        }
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Adds an item that holds the given number of bytes, blocking while the budget is exhausted.
+     */
+    public synchronized void put(T item, long bytes) throws InterruptedException {
+        while (usedBytes > 0 && usedBytes + bytes > capacityBytes) {
+            wait();
+        }
+        usedBytes += bytes;
+        items.addLast(item);
+        notifyAll();
+    }
+
+    /**
+     * Removes the oldest item, blocking until one is available. Its bytes stay reserved until release() is called.
+     */
+    public synchronized T take() throws InterruptedException {
+        while (items.isEmpty()) {
+            wait();
+        }
+        return items.removeFirst();
+    }
+
+    /**
+     * Returns the bytes of a consumed item to the budget.
+     */
+    public synchronized void release(long bytes) {
+        usedBytes = Math.max(0, usedBytes - bytes);
+        notifyAll();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+}
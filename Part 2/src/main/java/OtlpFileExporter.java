@@ -0,0 +1,245 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This OtlpFileExporter class writes spans or metrics to local files in the OTLP format, for hosts without a
+ * collector. Each export is written as lines of OTLP JSON, one export request per resource, which is the format read
+ * by the collector's otlpjsonfile receiver.
+ *
+ * The JSON comes from the OtlpJsonLogging exporters of opentelemetry-exporter-logging-otlp, which log one line per
+ * resource to the java.util.logging logger named after their class. A handler on that logger wraps each line into an
+ * export request and writes it to the files instead of the console. Since those loggers are shared by the whole JVM,
+ * there can be one span and one metric instance per JVM, as there is one SDK per JVM (see Telemetry).
+ *
+ * Files are named <prefix>-<sequence number>.jsonl. Once a file reaches the size limit the next one is started,
+ * and only the newest few files are kept, so the disk space used is bounded. Spans and metrics each need their own
+ * instance, with a different prefix.
+ */
+
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingMetricExporter;
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+public class OtlpFileExporter {
+    private static final String EXTENSION = ".jsonl";
+
+    private final File directory;
+    private final String prefix;
+    private final long maxFileBytes;
+    private final int maxFiles;
+
+    private final ArrayList<Integer> sequences = new ArrayList<>();
+    private OutputStream current;
+    private long currentBytes;
+
+    // The logger the JSON arrives on, held so its handler is not lost when the logging system lets go of it
+    private Logger logger;
+
+    public OtlpFileExporter(File directory, String prefix, long maxFileBytes, int maxFiles) {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = Math.max(1, maxFiles);
+    }
+
+    public SpanExporter spanExporter() {
+        capture(OtlpJsonLoggingSpanExporter.class, "resourceSpans");
+        SpanExporter exporter = OtlpJsonLoggingSpanExporter.create();
+        return new SpanExporter() {
+            @Override
+            public CompletableResultCode export(Collection<SpanData> spans) {
+                return exporter.export(spans);
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                exporter.flush();
+                return OtlpFileExporter.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                exporter.shutdown();
+                return closeFile();
+            }
+        };
+    }
+
+    public MetricExporter metricExporter() {
+        capture(OtlpJsonLoggingMetricExporter.class, "resourceMetrics");
+        MetricExporter exporter = OtlpJsonLoggingMetricExporter.create(AggregationTemporality.CUMULATIVE);
+        return new MetricExporter() {
+            @Override
+            public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+                return exporter.getAggregationTemporality(instrumentType);
+            }
+
+            @Override
+            public CompletableResultCode export(Collection<MetricData> metrics) {
+                return exporter.export(metrics);
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                exporter.flush();
+                return OtlpFileExporter.this.flush();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                exporter.shutdown();
+                return closeFile();
+            }
+        };
+    }
+
+    /**
+     * Sends the lines the exporter logs to the files, wrapped into an export request under the given field, and
+     * stops them from reaching the console.
+     */
+    private void capture(Class<?> exporter, String field) {
+        logger = Logger.getLogger(exporter.getName());
+        logger.setUseParentHandlers(false);
+        logger.setLevel(Level.INFO);
+        for (Handler handler : logger.getHandlers()) {
+            if (handler instanceof FileHandler) {
+                logger.removeHandler(handler);
+            }
+        }
+        logger.addHandler(new FileHandler(field));
+    }
+
+    private class FileHandler extends Handler {
+        private final String field;
+
+        FileHandler(String field) {
+            this.field = field;
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            String line = "{\"" + field + "\":[" + record.getMessage() + "]}\n";
+            write(line.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private synchronized void write(byte[] record) {
+        try {
+            if (current == null || currentBytes + record.length > maxFileBytes) {
+                rotate();
+            }
+            current.write(record);
+            current.flush();
+            currentBytes += record.length;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts the next file, deleting the oldest ones past the limit. The files already in the directory are counted
+     * on the first call, so the limit holds across restarts.
+     */
+    private void rotate() throws IOException {
+        if (current == null && sequences.isEmpty()) {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            findExistingFiles();
+        }
+        if (current != null) {
+            current.close();
+        }
+
+        int next = sequences.isEmpty() ? 1 : sequences.get(sequences.size() - 1) + 1;
+        sequences.add(next);
+        while (sequences.size() > maxFiles) {
+            File oldest = file(sequences.remove(0));
+            if (oldest.exists() && !oldest.delete()) {
+                System.out.println("Could not delete " + oldest);
+            }
+        }
+
+        current = new BufferedOutputStream(new FileOutputStream(file(next)));
+        currentBytes = 0;
+    }
+
+    private void findExistingFiles() {
+        String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix + "-") && name.endsWith(EXTENSION)) {
+                try {
+                    sequences.add(Integer.parseInt(name.substring(prefix.length() + 1, name.length() - EXTENSION.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(sequences);
+    }
+
+    private File file(int sequence) {
+        return new File(directory, prefix + "-" + String.format("%06d", sequence) + EXTENSION);
+    }
+
+    private synchronized CompletableResultCode flush() {
+        try {
+            if (current != null) {
+                current.flush();
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return CompletableResultCode.ofFailure();
+        }
+    }
+
+    private synchronized CompletableResultCode closeFile() {
+        try {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+            return CompletableResultCode.ofSuccess();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return CompletableResultCode.ofFailure();
+        }
+    }
+}
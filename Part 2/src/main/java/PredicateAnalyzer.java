@@ -11,167 +11,764 @@
  * across multiple client executions to perform Statistical Debugging (SD).
  *
  * It automatically scans the working directory for files matching the pattern
- * run_*.txt, breaks down each run’s predicate evaluations, and add up results
+ * run_*.bin or run_*.txt (see RunLog), skipping a text log that has been converted
+ * to binary, breaks down each run’s predicate evaluations, and add up results
  * across all executions. The analyzer computes the Failure(P), Context(P), and
  * Increase(P) metrics for every predicate, providing results into which conditions
  * link the most strongly with program failures.
  *
+ * The logs are read in a single pass: records are counted in batches of 64 as they
+ * are read, so no run is kept in memory and the metrics are computed from the
+ * counters at the end. Predicate names are interned to IDs once, and each record is
+ * a pair of bitsets over those IDs, so counting is popcounts over the bitsets of a
+ * batch and adding up counters never compares names. The files are read in parallel on
+ * analyzer.threads threads (default one per core), each into counters of its own,
+ * which are then added together, so memory use depends on the number of threads
+ * and predicates, not on the number or size of the files.
+ *
+ * The counters are kept in analyzer.snapshot (see AnalyzerSnapshot) along with how
+ * far each log was read, so the next run of the analyzer only reads the logs that are
+ * new or have grown. Logs that were deleted stay counted; -Danalyzer.rebuild=true
+ * ignores the snapshot and reads every log again. With --watch, the analyzer keeps
+ * running and updates results.csv whenever a run log appears or changes.
+ *
+ * Values logged for numeric variables, such as the compression ratio, are kept per
+ * variable with the outcome of their record, and the best threshold of each is written
+ * to thresholds.csv (see ThresholdSearch).
+ *
  * The final results are exported to a CSV file containing raw predicate counts
  * and computed SD metrics, enabling further analysis, and  interpretation
  * of predicates to identify the deliberate bug’s root cause.
  */
 
 import java.io.*;
+import java.nio.file.FileSystems;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 public class PredicateAnalyzer {
+    static int THREADS = Integer.getInteger("analyzer.threads", Runtime.getRuntime().availableProcessors());
+    static File SNAPSHOT = new File(System.getProperty("analyzer.snapshot", "analyzer.snapshot"));
+    static boolean REBUILD = Boolean.getBoolean("analyzer.rebuild");
 
-    static class Run {
-        Map<String, Boolean> predicates = new HashMap<>();
-        boolean failed;
-    }
+    // How long the directory has to be quiet in watch mode before the logs are read
+    static long WATCH_SETTLE_MILLIS = Long.getLong("analyzer.watchSettleMillis", 500L);
 
     public static void main(String[] args) throws Exception {
+        boolean watch = args.length > 0 && args[0].equals("--watch");
 
         File folder = new File(".");
-        File[] runFiles = folder.listFiles((dir, name) -> name.startsWith("run_") && name.endsWith(".txt"));
+        AnalyzerSnapshot snapshot = REBUILD ? new AnalyzerSnapshot() : AnalyzerSnapshot.load(SNAPSHOT);
+
+        update(folder, snapshot);
+        if (watch) {
+            watch(folder, snapshot);
+        }
+    }
+
+    /**
+     * Reads the logs that are new or have grown since the snapshot, saves the snapshot and writes results.csv.
+     */
+    static void update(File folder, AnalyzerSnapshot snapshot) throws Exception {
+        File[] runFiles = folder.listFiles((dir, name) -> name.startsWith("run_")
+                && (name.endsWith(".bin")
+                || name.endsWith(".txt") && !new File(dir, name.replaceAll("\\.txt$", ".bin")).exists()));
 
         if (runFiles == null || runFiles.length == 0) {
-            System.out.println("No run_*.txt files found.");
+            System.out.println("No run_*.bin or run_*.txt files found.");
             return;
         }
 
-        System.out.println("Found " + runFiles.length + " run files.");
+        List<ReadTask> tasks = new ArrayList<>();
+        for (File file : runFiles) {
+            AnalyzerSnapshot.FileState state = snapshot.files.get(AnalyzerSnapshot.key(file.getName()));
+            if (state == null) {
+                tasks.add(new ReadTask(file, null));
+            } else if (!state.file.equals(file.getName()) || file.length() == state.size) {
+                // Already counted, possibly in its other format
+                continue;
+            } else if (file.length() < state.size) {
+                System.out.println(file.getName() + " is smaller than when it was counted, "
+                        + "run with -Danalyzer.rebuild=true to count it again.");
+            } else {
+                tasks.add(new ReadTask(file, state));
+            }
+        }
 
-        List<Run> allRuns = new ArrayList<>();
+        System.out.println("Found " + runFiles.length + " run files, " + tasks.size() + " new or changed.");
 
+        long start = System.nanoTime();
+        Progress progress = read(tasks);
+        System.out.println("Processed " + tasks.size() + " files in "
+                + (System.nanoTime() - start) / 1000000 + " ms on " + THREADS + " threads.");
+
+        Counts.merge(snapshot.counts, progress.complete);
+        snapshot.files.putAll(progress.states);
+        snapshot.save(SNAPSHOT);
+
+        // Runs that are still being logged are counted in the results, but left out of the snapshot
+        Counts counts = Counts.merge(Counts.merge(new Counts(), snapshot.counts), progress.incomplete);
+        writeResults("results.csv", counts.results());
+        System.out.println("Done! Results written to results.csv");
+
+        if (CompoundPredicates.TOP > 0) {
+            writeResults("compounds.csv", CompoundPredicates.mine(counts));
+            System.out.println("Compound predicates written to compounds.csv");
+        }
+
+        List<ThresholdSearch.Threshold> thresholds = ThresholdSearch.search(counts);
+        if (!thresholds.isEmpty()) {
+            ThresholdSearch.write("thresholds.csv", thresholds);
+            System.out.println("Thresholds written to thresholds.csv");
+        }
+    }
+
+    /**
+     * Updates the results every time a run log is created or written to, once the directory has been quiet for
+     * WATCH_SETTLE_MILLIS. Runs until the program is stopped.
+     */
+    static void watch(File folder, AnalyzerSnapshot snapshot) throws Exception {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            folder.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+            System.out.println("Watching " + folder.getAbsolutePath() + " for new runs, press Ctrl-C to stop.");
+
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                while (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || event.context().toString().startsWith("run_");
+                    }
+                    key.reset();
+                    key = watcher.poll(WATCH_SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if (changed) {
+                    update(folder, snapshot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every log file from the start, in parallel, and returns the sum of their counts.
+     */
+    static Counts analyze(File[] runFiles) throws InterruptedException, ExecutionException {
+        List<ReadTask> tasks = new ArrayList<>();
         for (File file : runFiles) {
-            System.out.println("Processing: " + file.getName());
-            allRuns.addAll(readfiles(file.getAbsolutePath()));
+            tasks.add(new ReadTask(file, null));
         }
+        Progress progress = read(tasks);
+        return Counts.merge(progress.complete, progress.incomplete);
+    }
 
-        Set<String> predicateNames = new TreeSet<>();
-        for (Run r : allRuns) predicateNames.addAll(r.predicates.keySet());
+    /**
+     * A log to read, from the start or from where an earlier read ended.
+     */
+    static class ReadTask {
+        final File file;
+        final AnalyzerSnapshot.FileState from;
 
-        List<String[]> csvRows = new ArrayList<>();
-        csvRows.add(new String[]{
-                "Predicate",
-                "trueCount",
-                "falseCount",
-                "P_true_fail",
-                "P_true_total",
-                "P_observed_fail",
-                "P_observed_success",
-                "failure",
-                "context",
-                "increase"
-        });
+        ReadTask(File file, AnalyzerSnapshot.FileState from) {
+            this.file = file;
+            this.from = from;
+        }
+    }
 
-        for (String pred : predicateNames) {
-            Result res = computeMetrics(pred, allRuns);
-            csvRows.add(new String[]{
-                    pred,
-                    String.valueOf(res.trueCount),
-                    String.valueOf(res.falseCount),
-                    String.valueOf(res.P_true_fail),
-                    String.valueOf(res.P_true_total),
-                    String.valueOf(res.P_observed_fail),
-                    String.valueOf(res.P_observed_success),
-                    String.format("%.4f", res.failure),
-                    String.format("%.4f", res.context),
-                    String.format("%.4f", res.increase)
-            });
+    /**
+     * The outcome of reading some logs: the counts of the logs that end with the outcome of a run, with how far
+     * each of them was read, and the counts of the logs whose last run is still being written.
+     */
+    static class Progress {
+        Counts complete = new Counts();
+        Counts incomplete = new Counts();
+        Map<String, AnalyzerSnapshot.FileState> states = new HashMap<>();
+
+        static Progress merge(Progress into, Progress other) {
+            Counts.merge(into.complete, other.complete);
+            Counts.merge(into.incomplete, other.incomplete);
+            into.states.putAll(other.states);
+            return into;
         }
+    }
 
-        writeCSV("results.csv", csvRows);
-        System.out.println("Done! Results written to results.csv");
+    /**
+     * Reads the logs in parallel, each into counters of its own, and adds them up.
+     */
+    static Progress read(List<ReadTask> tasks) throws InterruptedException, ExecutionException {
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            return pool.submit(() -> tasks.stream()
+                    .parallel()
+                    .map(PredicateAnalyzer::readfile)
+                    .reduce(Progress::merge)
+                    .orElseGet(Progress::new))
+                    .get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Reads one log file. A file that cannot be read is reported and counts for nothing.
+     */
+    private static Progress readfile(ReadTask task) {
+        Progress progress = new Progress();
+        Counts counts = new Counts();
+        RunAggregator aggregator = new RunAggregator(counts);
+        long size;
+        try {
+            if (task.from != null) {
+                for (int id = 0; id < task.from.predicates.length; id++) {
+                    if (task.from.predicates[id] != null) {
+                        aggregator.predicate(id, task.from.predicates[id]);
+                    }
+                }
+                for (int id = 0; id < task.from.variables.length; id++) {
+                    if (task.from.variables[id] != null) {
+                        aggregator.variable(id, task.from.variables[id]);
+                    }
+                }
+            }
+            size = readfiles(task.file, task.from == null ? 0 : task.from.size, aggregator);
+            aggregator.finish();
+        } catch (Exception e) {
+            System.out.println("Skipping " + task.file.getName() + ": " + e.getMessage());
+            return progress;
+        }
+
+        if (aggregator.complete()) {
+            progress.complete = counts;
+            progress.states.put(AnalyzerSnapshot.key(task.file.getName()),
+                    new AnalyzerSnapshot.FileState(task.file.getName(), size,
+                            aggregator.names(), aggregator.variables()));
+        } else {
+            progress.incomplete = counts;
+        }
+        return progress;
     }
 
-    private static List<Run> readfiles(String filename) throws Exception {
-        List<Run> runs = new ArrayList<>();
+    /**
+     * Reads the records of one log file into the aggregator, starting at the given offset, which is either 0 or the
+     * end of an earlier read. Returns the offset at which the file ended.
+     */
+    private static long readfiles(File file, long offset, RunAggregator aggregator) throws Exception {
+        try (FileInputStream stream = new FileInputStream(file)) {
+            stream.getChannel().position(offset);
+            CountingInputStream in = new CountingInputStream(new BufferedInputStream(stream));
+            if (file.getName().endsWith(".bin")) {
+                if (offset == 0) {
+                    RunLog.readBinary(in, aggregator);
+                } else {
+                    RunLog.readBlocks(in, aggregator);
+                }
+            } else {
+                RunLog.readText(new BufferedReader(new InputStreamReader(in)), aggregator);
+            }
+            return offset + in.count;
+        }
+    }
 
-        BufferedReader br = new BufferedReader(new FileReader(filename));
-        String line;
-        Run currentRun = new Run();
+    /**
+     * Counts the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        long count;
 
-        while ((line = br.readLine()) != null) {
-            line = line.trim();
-            if (line.isEmpty()) continue;
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
 
-            if (line.startsWith("----------------------------------")) {
-                if (!currentRun.predicates.isEmpty()) runs.add(currentRun);
-                currentRun = new Run();
-                continue;
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+    // Every predicate name the analyzer has seen, in the order they were first seen, and the ID of each name. The
+    // counters of all logs are indexed by these IDs, so adding up counters never has to look at a name.
+    private static final List<String> predicateNames = new ArrayList<>();
+    private static final Map<String, Integer> predicateIds = new HashMap<>();
+
+    /**
+     * Returns the analyzer-wide ID of the named predicate, assigning the next one the first time a name is seen.
+     */
+    static synchronized int intern(String name) {
+        Integer id = predicateIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        predicateNames.add(name);
+        predicateIds.put(name, predicateNames.size() - 1);
+        return predicateNames.size() - 1;
+    }
+
+    static synchronized String predicateName(int id) {
+        return predicateNames.get(id);
+    }
+
+    // The predicates left out of the rows of every Counts, so the rows of different logs stay comparable. Predicates
+    // are only ever added, by the first Counts whose rows grow past CompoundPredicates.MAX_ROWS.
+    private static long[] leftOutOfRows = new long[0];
+
+    static synchronized long[] leftOutOfRows() {
+        return leftOutOfRows.clone();
+    }
+
+    static synchronized void leaveOutOfRows(int id) {
+        if (id / 64 >= leftOutOfRows.length) {
+            leftOutOfRows = Arrays.copyOf(leftOutOfRows, id / 64 + 1);
+        }
+        leftOutOfRows[id / 64] |= 1L << id;
+    }
+
+    // Every variable name the analyzer has seen, interned the same way
+    private static final List<String> variableNames = new ArrayList<>();
+    private static final Map<String, Integer> variableIds = new HashMap<>();
+
+    static synchronized int internVariable(String name) {
+        Integer id = variableIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        variableNames.add(name);
+        variableIds.put(name, variableNames.size() - 1);
+        return variableNames.size() - 1;
+    }
+
+    static synchronized String variableName(int id) {
+        return variableNames.get(id);
+    }
+
+    /**
+     * The counters of every predicate seen so far, in arrays indexed by the interned ID of the predicate.
+     */
+    static class Counts {
+        // Number of predicate IDs these counters cover
+        int size = 0;
+
+        long[] trueCount = new long[PredicateRegistry.MAX_PREDICATES];
+        long[] falseCount = new long[PredicateRegistry.MAX_PREDICATES];
+        long[] trueFail = new long[PredicateRegistry.MAX_PREDICATES];
+        long[] observedFail = new long[PredicateRegistry.MAX_PREDICATES];
+        long[] observedSuccess = new long[PredicateRegistry.MAX_PREDICATES];
+
+        // Every distinct record with the number of times it occurred, see CompoundPredicates
+        Map<CompoundPredicates.Row, Long> rows = new HashMap<>();
+
+        // The predicates left out of the rows when they were last projected, as bits of their IDs, see leftOutOfRows
+        long[] leftOut = new long[0];
+
+        // The values of each variable by interned variable ID, or null for a variable without values here
+        List<ThresholdSearch.Samples> samples = new ArrayList<>();
+
+        /**
+         * Returns the ID of the named predicate, making room for its counters the first time it is seen.
+         */
+        int indexOf(String name) {
+            int predicate = intern(name);
+            ensure(predicate + 1);
+            return predicate;
+        }
+
+        private void ensure(int predicates) {
+            if (predicates > trueCount.length) {
+                int length = Math.max(predicates, trueCount.length * 2);
+                trueCount = Arrays.copyOf(trueCount, length);
+                falseCount = Arrays.copyOf(falseCount, length);
+                trueFail = Arrays.copyOf(trueFail, length);
+                observedFail = Arrays.copyOf(observedFail, length);
+                observedSuccess = Arrays.copyOf(observedSuccess, length);
             }
+            size = Math.max(size, predicates);
+        }
 
-            if (line.startsWith("EXCEPTION=")) {
-                currentRun.failed = line.endsWith("1");
-                runs.add(currentRun);
-                currentRun = new Run();
-                continue;
+        boolean leftOut(int predicate) {
+            return predicate / 64 < leftOut.length && (leftOut[predicate / 64] & (1L << predicate)) != 0;
+        }
+
+        /**
+         * Projects the rows on the predicates that are still kept, if more have been left out since they last were,
+         * or always if force is set because the rows were projected on different sets.
+         */
+        void syncRows(boolean force) {
+            long[] current = leftOutOfRows();
+            if (force || !Arrays.equals(current, leftOut)) {
+                leftOut = current;
+                projectRows();
             }
+        }
+
+        /**
+         * Once there are more than CompoundPredicates.MAX_ROWS rows, leaves out an eighth of the predicates still in
+         * them at a time, those whose better literal has the lowest Increase here, until there are at most half as
+         * many.
+         */
+        void capRows() {
+            syncRows(false);
+            if (rows.size() <= CompoundPredicates.MAX_ROWS) return;
+
+            List<Integer> kept = new ArrayList<>();
+            double[] increases = new double[size];
+            for (int predicate = 0; predicate < size; predicate++) {
+                if (trueCount[predicate] + falseCount[predicate] == 0 || leftOut(predicate)) continue;
+                kept.add(predicate);
+                double increase = computeMetrics("", trueCount[predicate], falseCount[predicate],
+                        trueFail[predicate], observedFail[predicate], observedSuccess[predicate]).increase;
+                double negated = computeMetrics("", falseCount[predicate], trueCount[predicate],
+                        observedFail[predicate] - trueFail[predicate], observedFail[predicate],
+                        observedSuccess[predicate]).increase;
+                increases[predicate] = Math.max(increase, negated);
+            }
+            kept.sort(Comparator.comparingDouble((Integer predicate) -> increases[predicate]).reversed());
 
-            if (line.contains("=")) {
-                String[] parts = line.split("=");
-                if (parts.length == 2) {
-                    currentRun.predicates.put(parts[0], Boolean.parseBoolean(parts[1]));
+            while (rows.size() > CompoundPredicates.MAX_ROWS / 2 && !kept.isEmpty()) {
+                int keep = kept.size() - Math.max(1, kept.size() / 8);
+                for (int predicate : kept.subList(keep, kept.size())) {
+                    leaveOutOfRows(predicate);
                 }
+                kept = kept.subList(0, keep);
+                syncRows(false);
             }
         }
 
-        br.close();
-        return runs;
-    }
+        /**
+         * Merges the rows that only differ in predicates that are left out.
+         */
+        private void projectRows() {
+            Map<CompoundPredicates.Row, Long> projected = new HashMap<>();
+            rows.forEach((row, count) -> projected.merge(row.without(leftOut), count, Long::sum));
+            rows = projected;
+        }
 
-    static class Result {
-        int trueCount, falseCount;
-        int P_true_fail, P_true_total;
-        int P_observed_fail, P_observed_success;
-        double failure, context, increase;
+        /**
+         * Returns the values of the variable with the given interned ID, creating them the first time.
+         */
+        ThresholdSearch.Samples samples(int variable) {
+            while (samples.size() <= variable) {
+                samples.add(null);
+            }
+            if (samples.get(variable) == null) {
+                samples.set(variable, new ThresholdSearch.Samples());
+            }
+            return samples.get(variable);
+        }
+
+        /**
+         * Counts a batch of up to 64 records given as bit columns: observed[id] and isTrue[id] have bit r set if
+         * predicate ID id of the log was evaluated, or true, in record r, and failed has bit r set if record r failed.
+         * The table gives the index here of each predicate ID of the log. Each counter is then a popcount of the
+         * column intersected with the failure word.
+         */
+        void add(long[] isTrue, long[] observed, long failed, int[] table) {
+            for (int id = 0; id < observed.length; id++) {
+                long seen = observed[id];
+                int predicate = table[id];
+                if (seen == 0 || predicate < 0) continue;
+
+                long wasTrue = isTrue[id] & seen;
+                int seenCount = Long.bitCount(seen);
+                int trueSeen = Long.bitCount(wasTrue);
+                int failSeen = Long.bitCount(seen & failed);
+
+                trueCount[predicate] += trueSeen;
+                falseCount[predicate] += seenCount - trueSeen;
+                trueFail[predicate] += Long.bitCount(wasTrue & failed);
+                observedFail[predicate] += failSeen;
+                observedSuccess[predicate] += seenCount - failSeen;
+            }
+        }
+
+        /**
+         * Adds the counts of another table to the counts of this one and returns this one. Tables can be merged in
+         * any grouping, as long as each is only merged once.
+         */
+        static Counts merge(Counts into, Counts other) {
+            into.ensure(other.size);
+            for (int predicate = 0; predicate < other.size; predicate++) {
+                into.trueCount[predicate] += other.trueCount[predicate];
+                into.falseCount[predicate] += other.falseCount[predicate];
+                into.trueFail[predicate] += other.trueFail[predicate];
+                into.observedFail[predicate] += other.observedFail[predicate];
+                into.observedSuccess[predicate] += other.observedSuccess[predicate];
+            }
+            // Rows projected on different predicates only add up once they are projected on the current ones
+            boolean mixed = !Arrays.equals(into.leftOut, other.leftOut);
+            other.rows.forEach((row, count) -> into.rows.merge(row, count, Long::sum));
+            into.syncRows(mixed);
+            into.capRows();
+            for (int variable = 0; variable < other.samples.size(); variable++) {
+                if (other.samples.get(variable) != null) {
+                    ThresholdSearch.Samples.merge(into.samples(variable), other.samples.get(variable));
+                }
+            }
+            return into;
+        }
+
+        /**
+         * Computes the metrics of every predicate that was observed at least once, in order of name.
+         */
+        List<Result> results() {
+            Map<String, Integer> byName = new TreeMap<>();
+            for (int predicate = 0; predicate < size; predicate++) {
+                byName.put(predicateName(predicate), predicate);
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Map.Entry<String, Integer> entry : byName.entrySet()) {
+                int predicate = entry.getValue();
+                if (trueCount[predicate] + falseCount[predicate] == 0) continue;
+                results.add(computeMetrics(entry.getKey(), trueCount[predicate], falseCount[predicate],
+                        trueFail[predicate], observedFail[predicate], observedSuccess[predicate]));
+            }
+            return results;
+        }
     }
 
-    private static Result computeMetrics(String predicate, List<Run> runs) {
+    /**
+     * Streams the records of one log into the counts. Whether a record failed is only known once the next record or
+     * the outcome of its run arrives, since the outcome of a client run belongs to its last record, so one record is
+     * always held back. A record still held back when the log ends, whose run never finished, is left out.
+     *
+     * Records whose outcome is known are collected 64 at a time, then the batch is turned into one word per
+     * predicate with a bit per record (a bit matrix transpose) and counted with popcounts, see Counts.add. The batch
+     * is also counted before a predicate ID is given a new name, and by finish() at the end of the log.
+     *
+     * The values logged for a record are held back with it, and added to the values of their variables once its
+     * outcome is known.
+     */
+    static class RunAggregator implements RunLog.Sink {
+        static final int BATCH = 64;
+
+        final Counts counts;
+
+        // The index in the counts of each predicate ID of this log, or -1 if it has not been defined
+        final int[] table = new int[PredicateRegistry.MAX_PREDICATES];
+
+        boolean pending = false;
+        long pendingTrue;
+        long pendingObserved;
+        boolean outcomes = false;
+
+        // The interned ID of each variable ID of this log, or -1 if it has not been defined
+        final int[] variableTable = new int[PredicateRegistry.MAX_VARIABLES];
+
+        // The values for the next record, and those of the record held back, by variable ID of the log
+        long nextValueBits;
+        double[] nextValues = new double[PredicateRegistry.MAX_VARIABLES];
+        long pendingValueBits;
+        double[] pendingValues = new double[PredicateRegistry.MAX_VARIABLES];
+
+        // Records waiting to be counted, one row each, and a bit for each of them that failed
+        final long[] trueRows = new long[BATCH];
+        final long[] observedRows = new long[BATCH];
+        long failedRows = 0;
+        int rows = 0;
+
+        // The distinct records of the log, added to the counts with the IDs of the table
+        final CompoundPredicates.LogRows logRows = new CompoundPredicates.LogRows();
+
+        RunAggregator(Counts counts) {
+            this.counts = counts;
+            Arrays.fill(table, -1);
+            Arrays.fill(variableTable, -1);
+        }
+
+        @Override
+        public void predicate(int id, String name) throws IOException {
+            if (id < 0 || id >= table.length) {
+                throw new IOException("Invalid predicate ID " + id + " for " + name);
+            }
+            int predicate = counts.indexOf(name);
+            if (table[id] != predicate) {
+                countBatch();
+                logRows.drainInto(counts, table);
+                table[id] = predicate;
+            }
+        }
+
+        @Override
+        public void variable(int id, String name) throws IOException {
+            if (id < 0 || id >= variableTable.length) {
+                throw new IOException("Invalid variable ID " + id + " for " + name);
+            }
+            variableTable[id] = internVariable(name);
+        }
+
+        @Override
+        public void value(int id, double value) throws IOException {
+            if (id < 0 || id >= variableTable.length || variableTable[id] < 0) {
+                throw new IOException("Value for undefined variable ID " + id);
+            }
+            nextValueBits |= 1L << id;
+            nextValues[id] = value;
+        }
 
-        int P_true_fail = 0;
-        int P_true_total = 0;
+        @Override
+        public void record(long trueBits, long observedBits) {
+            if (pending) addRow(false);
+            pending = true;
+            pendingTrue = trueBits;
+            pendingObserved = observedBits;
+
+            double[] values = pendingValues;
+            pendingValues = nextValues;
+            nextValues = values;
+            pendingValueBits = nextValueBits;
+            nextValueBits = 0;
+        }
 
-        int P_observed_fail = 0;
-        int P_observed_success = 0;
+        @Override
+        public void outcome(boolean failed) {
+            if (pending) addRow(failed);
+            pending = false;
+            outcomes = true;
+        }
 
-        int trueCount = 0;
-        int falseCount = 0;
+        private void addRow(boolean failed) {
+            trueRows[rows] = pendingTrue;
+            observedRows[rows] = pendingObserved;
+            if (failed) failedRows |= 1L << rows;
+            if (CompoundPredicates.TOP > 0) {
+                logRows.add(pendingTrue, pendingObserved, failed);
+                if (logRows.size >= CompoundPredicates.MAX_ROWS) logRows.drainInto(counts, table);
+            }
+            for (long remaining = pendingValueBits; remaining != 0; remaining &= remaining - 1) {
+                int id = Long.numberOfTrailingZeros(remaining);
+                counts.samples(variableTable[id]).add(pendingValues[id], failed);
+            }
+            if (++rows == BATCH) countBatch();
+        }
 
-        for (Run r : runs) {
-            if (!r.predicates.containsKey(predicate)) continue;
+        private void countBatch() {
+            if (rows == 0) return;
+            Arrays.fill(trueRows, rows, BATCH, 0);
+            Arrays.fill(observedRows, rows, BATCH, 0);
+            transpose(trueRows);
+            transpose(observedRows);
+            counts.add(trueRows, observedRows, failedRows, table);
+            failedRows = 0;
+            rows = 0;
+        }
 
-            boolean val = r.predicates.get(predicate);
+        /**
+         * Counts the records still in the batch and adds the distinct records to the counts. Called once the log has
+         * been read.
+         */
+        void finish() {
+            countBatch();
+            logRows.drainInto(counts, table);
+        }
 
-            if (val) {
-                trueCount++;
-                P_true_total++;
-                if (r.failed) P_true_fail++;
-            } else {
-                falseCount++;
+        /**
+         * Returns true if the log read so far ends with the outcome of a run.
+         */
+        boolean complete() {
+            return outcomes && !pending;
+        }
+
+        /**
+         * Returns the name of each predicate ID defined in the log.
+         */
+        String[] names() {
+            int defined = 0;
+            for (int id = 0; id < table.length; id++) {
+                if (table[id] >= 0) defined = id + 1;
+            }
+            String[] names = new String[defined];
+            for (int id = 0; id < defined; id++) {
+                names[id] = table[id] >= 0 ? predicateName(table[id]) : null;
+            }
+            return names;
+        }
+
+        /**
+         * Returns the name of each variable ID defined in the log.
+         */
+        String[] variables() {
+            int defined = 0;
+            for (int id = 0; id < variableTable.length; id++) {
+                if (variableTable[id] >= 0) defined = id + 1;
             }
+            String[] names = new String[defined];
+            for (int id = 0; id < defined; id++) {
+                names[id] = variableTable[id] >= 0 ? variableName(variableTable[id]) : null;
+            }
+            return names;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
 
-            if (r.failed) P_observed_fail++;
-            else P_observed_success++;
+    /**
+     * Transposes a 64x64 bit matrix in place, where bit c of word r is row r, column c, by swapping ever smaller
+     * off-diagonal blocks (Hacker's Delight, 7-3).
+     */
+    static void transpose(long[] matrix) {
+        long mask = 0x00000000FFFFFFFFL;
+        for (int j = 32; j != 0; j >>>= 1, mask ^= mask << j) {
+            for (int k = 0; k < 64; k = ((k | j) + 1) & ~j) {
+                long swap = ((matrix[k] >>> j) ^ matrix[k | j]) & mask;
+                matrix[k] ^= swap << j;
+                matrix[k | j] ^= swap;
+            }
         }
+    }
+
+    static class Result {
+        String predicate;
+        long trueCount, falseCount;
+        long P_true_fail, P_true_total;
+        long P_observed_fail, P_observed_success;
+        double failure, context, increase;
+    }
 
+    static Result computeMetrics(String predicate, long trueCount, long falseCount, long P_true_fail,
+                                         long P_observed_fail, long P_observed_success) {
         Result res = new Result();
 
+        res.predicate = predicate;
         res.trueCount = trueCount;
         res.falseCount = falseCount;
         res.P_true_fail = P_true_fail;
-        res.P_true_total = P_true_total;
+        res.P_true_total = trueCount;
         res.P_observed_fail = P_observed_fail;
         res.P_observed_success = P_observed_success;
 
-        res.failure = (P_true_total > 0)
-                ? (double) P_true_fail / P_true_total
+        res.failure = (res.P_true_total > 0)
+                ? (double) P_true_fail / res.P_true_total
                 : 0;
 
-        int totalObserved = P_observed_fail + P_observed_success;
+        long totalObserved = P_observed_fail + P_observed_success;
         res.context = (totalObserved > 0)
                 ? (double) P_observed_fail / totalObserved
                 : 0;
@@ -181,11 +778,47 @@ public class PredicateAnalyzer {
         return res;
     }
 
-    private static void writeCSV(String filename, List<String[]> rows) throws Exception {
+    /**
+     * Writes the counts and metrics of each result to a CSV file.
+     */
+    static void writeResults(String filename, List<Result> results) throws Exception {
+        List<String[]> csvRows = new ArrayList<>();
+        csvRows.add(new String[]{
+                "Predicate",
+                "trueCount",
+                "falseCount",
+                "P_true_fail",
+                "P_true_total",
+                "P_observed_fail",
+                "P_observed_success",
+                "failure",
+                "context",
+                "increase"
+        });
+
+        for (Result res : results) {
+            csvRows.add(new String[]{
+                    res.predicate,
+                    String.valueOf(res.trueCount),
+                    String.valueOf(res.falseCount),
+                    String.valueOf(res.P_true_fail),
+                    String.valueOf(res.P_true_total),
+                    String.valueOf(res.P_observed_fail),
+                    String.valueOf(res.P_observed_success),
+                    String.format("%.4f", res.failure),
+                    String.format("%.4f", res.context),
+                    String.format("%.4f", res.increase)
+            });
+        }
+
+        writeCSV(filename, csvRows);
+    }
+
+    static void writeCSV(String filename, List<String[]> rows) throws Exception {
         PrintWriter pw = new PrintWriter(new FileWriter(filename));
         for (String[] r : rows) {
             pw.println(String.join(",", r));
         }
         pw.close();
     }
-}
\ No newline at end of file
+}
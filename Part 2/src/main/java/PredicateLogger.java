@@ -10,38 +10,206 @@
  * This PredicateLogger class is responsible for recording predicate evaluations
  * and run-level outcomes during each execution of the client-side file transfer.
  *
- * The logger writes simple key/value pairs to a text file, documenting the
- * values of internal predicates and whether the execution resulted in an exception.
+ * The logger writes one record per file, holding the outcomes of its predicates
+ * as bitsets and the values of its variables (see PredicateRegistry), and records
+ * whether the execution resulted in an exception. The log is written in the binary RunLog format to a .bin
+ * file, or in the text format to a .txt file if predicateLog.format is text.
  * These logs are later consumed by the PredicateAnalyzer to support Statistical
  * Debugging (SD), enabling the computation of Failure, Context, and Increase metrics
  * based on program traces.
+ *
+ * The transfer thread only puts each record on a queue. A background writer takes the
+ * records off, encodes them and appends them to the file, which stays open for the whole
+ * run, and flushes whenever the queue has been empty for predicateLog.flushMillis
+ * (default 200). The queue holds at most predicateLog.queueSize records (default 4096);
+ * when it is full, predicateLog.overflow decides whether the transfer waits for the
+ * writer (block, the default, so no run loses records) or the record is dropped (drop).
+ * finalizeLog writes the outcome of the run and waits until everything is on disk, and
+ * logs that are still open when the JVM exits are flushed by a shutdown hook.
  */
 
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class PredicateLogger {
+    static int QUEUE_SIZE = Integer.getInteger("predicateLog.queueSize", 4096);
+    static long FLUSH_MILLIS = Long.getLong("predicateLog.flushMillis", 200L);
+    static boolean DROP_ON_OVERFLOW = System.getProperty("predicateLog.overflow", "block").equals("drop");
+    static boolean TEXT_FORMAT = System.getProperty("predicateLog.format", "binary").equals("text");
+
+    // How long a blocked transfer thread or an idle writer sleeps before it looks at the queue again
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    // Logs that have not been finalized yet, flushed if the JVM exits first
+    private static final Set<PredicateLogger> open = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (PredicateLogger logger : open) {
+                logger.close();
+            }
+        }, "predicate-log-shutdown"));
+    }
 
     private final String filename;
-    private boolean exceptionOccurred = false;
+    private volatile boolean exceptionOccurred = false;
 
-    public PredicateLogger(String filename) {
-        this.filename = filename;
+    // Number of predicate and variable IDs already defined in this log, see PredicateRegistry
+    private int describedPredicates = 0;
+    private int describedVariables = 0;
+
+    // Entries waiting for the writer, either Records or the Boolean outcome of the run
+    private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closing = false;
+    private final Thread writer;
+
+    /**
+     * Starts a log for one run. The extension of the file is added for the format.
+     */
+    public PredicateLogger(String name) {
+        this.filename = name + (TEXT_FORMAT ? ".txt" : ".bin");
+        writer = new Thread(this::drain, "predicate-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        open.add(this);
     }
 
-    public void log(String line) {
-        try (FileWriter fw = new FileWriter(filename, true)) {
-            fw.write(line + "\n");
-        } catch (IOException e) {
-            System.out.println("Error writing log: " + e.getMessage());
-        }
+    /**
+     * Writes the predicate outcomes of one file.
+     */
+    public void record(PredicateRegistry.Record record) {
+        enqueue(record, DROP_ON_OVERFLOW);
     }
 
     public void markException() {
         exceptionOccurred = true;
     }
 
+    /**
+     * Writes the outcome of the run and returns once the whole log is on disk.
+     */
     public void finalizeLog() {
-        log("EXCEPTION=" + (exceptionOccurred ? "1" : "0"));
+        enqueue(exceptionOccurred, false);
+        close();
+        if (dropped.get() > 0) {
+            System.out.println("Predicate log " + filename + " dropped " + dropped.get() + " records");
+        }
+    }
+
+    private void enqueue(Object entry, boolean dropIfFull) {
+        while (queued.incrementAndGet() > QUEUE_SIZE) {
+            queued.decrementAndGet();
+            if (dropIfFull) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+        queue.add(entry);
+    }
+
+    /**
+     * Stops the writer once it has written everything queued so far, and waits for it.
+     */
+    private void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        open.remove(this);
+    }
+
+    /**
+     * Runs on the writer thread: appends the queued entries to the file until the log is closed.
+     */
+    private void drain() {
+        try (RunLog.Sink out = openSink()) {
+            boolean unflushed = false;
+            long idleSince = System.nanoTime();
+            while (true) {
+                Object entry = queue.poll();
+                if (entry != null) {
+                    queued.decrementAndGet();
+                    write(out, entry);
+                    unflushed = true;
+                    idleSince = System.nanoTime();
+                    continue;
+                }
+
+                if (closing && queue.isEmpty()) {
+                    break;
+                }
+                long untilFlush = TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS) - (System.nanoTime() - idleSince);
+                if (unflushed && untilFlush <= 0) {
+                    out.flush();
+                    unflushed = false;
+                }
+                LockSupport.parkNanos(unflushed ? untilFlush : TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS));
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing log: " + e.getMessage());
+            // Keep taking entries so the transfer is never stuck waiting for a writer that has failed
+            while (!closing || !queue.isEmpty()) {
+                if (queue.poll() != null) {
+                    queued.decrementAndGet();
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+        }
+    }
+
+    private RunLog.Sink openSink() throws IOException {
+        if (TEXT_FORMAT) {
+            return new RunLog.TextWriter(new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(filename, true), StandardCharsets.UTF_8)));
+        }
+        return new RunLog.BinaryWriter(new BufferedOutputStream(new FileOutputStream(filename)));
+    }
+
+    /**
+     * Writes one entry, defining any predicates and variables registered since the last one first.
+     */
+    private void write(RunLog.Sink out, Object entry) throws IOException {
+        int registered = PredicateRegistry.size();
+        for (int id = describedPredicates; id < registered; id++) {
+            out.predicate(id, PredicateRegistry.name(id));
+        }
+        describedPredicates = registered;
+
+        int variables = PredicateRegistry.variables();
+        for (int id = describedVariables; id < variables; id++) {
+            out.variable(id, PredicateRegistry.variableName(id));
+        }
+        describedVariables = variables;
+
+        if (entry instanceof PredicateRegistry.Record) {
+            PredicateRegistry.Record record = (PredicateRegistry.Record) entry;
+            for (long bits = record.valueBits; bits != 0; bits &= bits - 1) {
+                int id = Long.numberOfTrailingZeros(bits);
+                out.value(id, record.values[id]);
+            }
+            out.record(record.trueBits, record.observedBits);
+        } else {
+            out.outcome((Boolean) entry);
+        }
     }
-}
\ No newline at end of file
+}
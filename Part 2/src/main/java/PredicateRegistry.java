@@ -0,0 +1,121 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This PredicateRegistry class gives every predicate an integer ID once, when the class that evaluates it is
+ * loaded. The outcomes for one file are then kept in a Record as two bitsets, one with a bit for each predicate that
+ * was true and one with a bit for each predicate that was evaluated at all, so recording a predicate is a couple of
+ * bit operations instead of a span attribute and a log line.
+ *
+ * A Record fits in two longs, so there can be at most 64 predicates. The PredicateLogger writes the Records to a
+ * RunLog, defining the name of every predicate before the first record that could use it, so each run file can be
+ * read on its own.
+ *
+ * Numeric observations, such as the compression ratio of a file, are registered as variables and logged as values
+ * instead of being split into predicates by hand; the PredicateAnalyzer finds the thresholds (see ThresholdSearch).
+ * Variables have IDs of their own, at most 64 of them, and a Record only carries the values that were set.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PredicateRegistry {
+    static final int MAX_PREDICATES = 64;
+    static final int MAX_VARIABLES = 64;
+
+    private static final List<String> names = new ArrayList<>();
+    private static final Map<String, Integer> ids = new HashMap<>();
+    private static final List<String> variableNames = new ArrayList<>();
+    private static final Map<String, Integer> variableIds = new HashMap<>();
+
+    /**
+     * Returns the ID of the named predicate, assigning the next free one the first time a name is seen.
+     */
+    public static synchronized int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.size() == MAX_PREDICATES) {
+            throw new IllegalStateException("More than " + MAX_PREDICATES + " predicates registered");
+        }
+        names.add(name);
+        ids.put(name, names.size() - 1);
+        return names.size() - 1;
+    }
+
+    public static synchronized String name(int id) {
+        return names.get(id);
+    }
+
+    public static synchronized int size() {
+        return names.size();
+    }
+
+    /**
+     * Returns the ID of the named variable, assigning the next free one the first time a name is seen.
+     */
+    public static synchronized int registerVariable(String name) {
+        Integer id = variableIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (variableNames.size() == MAX_VARIABLES) {
+            throw new IllegalStateException("More than " + MAX_VARIABLES + " variables registered");
+        }
+        variableNames.add(name);
+        variableIds.put(name, variableNames.size() - 1);
+        return variableNames.size() - 1;
+    }
+
+    public static synchronized String variableName(int id) {
+        return variableNames.get(id);
+    }
+
+    public static synchronized int variables() {
+        return variableNames.size();
+    }
+
+    /**
+     * The outcomes of the predicates for one file.
+     */
+    public static class Record {
+        long trueBits;
+        long observedBits;
+
+        // A bit for each variable that has a value, and the values by variable ID
+        long valueBits;
+        double[] values;
+
+        public void set(int id, boolean value) {
+            long bit = 1L << id;
+            observedBits |= bit;
+            if (value) {
+                trueBits |= bit;
+            } else {
+                trueBits &= ~bit;
+            }
+        }
+
+        public void value(int id, double value) {
+            if (values == null || values.length <= id) {
+                values = Arrays.copyOf(values == null ? new double[0] : values, Math.max(id + 1, 8));
+            }
+            values[id] = value;
+            valueBits |= 1L << id;
+        }
+
+        @Override
+        public String toString() {
+            return "BITS " + Long.toHexString(trueBits) + " " + Long.toHexString(observedBits);
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This PrometheusEndpoint class is a metric reader that serves the current metrics at /metrics in the Prometheus
+ * text format, using the HTTP server built into the JDK. Nothing is collected or sent until Prometheus scrapes the
+ * endpoint, so a host without a collector pays nothing between scrapes.
+ *
+ * Sums become counters, or gauges if they can go down, and histograms become the usual _bucket, _sum and _count
+ * series. Attribute names are turned into valid label names.
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.InstrumentType;
+import io.opentelemetry.sdk.metrics.data.AggregationTemporality;
+import io.opentelemetry.sdk.metrics.data.DoublePointData;
+import io.opentelemetry.sdk.metrics.data.HistogramPointData;
+import io.opentelemetry.sdk.metrics.data.LongPointData;
+import io.opentelemetry.sdk.metrics.data.MetricData;
+import io.opentelemetry.sdk.metrics.data.MetricDataType;
+import io.opentelemetry.sdk.metrics.export.CollectionRegistration;
+import io.opentelemetry.sdk.metrics.export.MetricReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class PrometheusEndpoint implements MetricReader {
+    private final HttpServer server;
+    private volatile CollectionRegistration registration = CollectionRegistration.noop();
+
+    public PrometheusEndpoint(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::scrape);
+        server.start();
+        System.out.println("Serving metrics on http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    @Override
+    public void register(CollectionRegistration registration) {
+        this.registration = registration;
+    }
+
+    @Override
+    public AggregationTemporality getAggregationTemporality(InstrumentType instrumentType) {
+        return AggregationTemporality.CUMULATIVE;
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        server.stop(0);
+        return CompletableResultCode.ofSuccess();
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (MetricData metric : registration.collectAllMetrics()) {
+            write(text, metric);
+        }
+
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private void write(StringBuilder text, MetricData metric) {
+        String name = sanitize(metric.getName());
+
+        switch (metric.getType()) {
+            case LONG_SUM:
+            case DOUBLE_SUM: {
+                boolean counter = metric.getType() == MetricDataType.LONG_SUM
+                        ? metric.getLongSumData().isMonotonic()
+                        : metric.getDoubleSumData().isMonotonic();
+                if (counter && !name.endsWith("_total")) {
+                    name += "_total";
+                }
+                header(text, name, metric.getDescription(), counter ? "counter" : "gauge");
+                writePoints(text, name, metric);
+                break;
+            }
+            case LONG_GAUGE:
+            case DOUBLE_GAUGE:
+                header(text, name, metric.getDescription(), "gauge");
+                writePoints(text, name, metric);
+                break;
+            case HISTOGRAM:
+                header(text, name, metric.getDescription(), "histogram");
+                for (HistogramPointData point : metric.getHistogramData().getPoints()) {
+                    List<Double> boundaries = point.getBoundaries();
+                    List<Long> counts = point.getCounts();
+                    long cumulative = 0;
+                    for (int i = 0; i < counts.size(); i++) {
+                        cumulative += counts.get(i);
+                        String le = i < boundaries.size() ? format(boundaries.get(i)) : "+Inf";
+                        sample(text, name + "_bucket", point.getAttributes(), "le", le, format(cumulative));
+                    }
+                    sample(text, name + "_sum", point.getAttributes(), null, null, format(point.getSum()));
+                    sample(text, name + "_count", point.getAttributes(), null, null, format(point.getCount()));
+                }
+                break;
+            default:
+                // Exponential histograms and summaries are not produced by this program
+                break;
+        }
+    }
+
+    private void writePoints(StringBuilder text, String name, MetricData metric) {
+        switch (metric.getType()) {
+            case LONG_SUM:
+                for (LongPointData point : metric.getLongSumData().getPoints()) {
+                    sample(text, name, point.getAttributes(), null, null, format(point.getValue()));
+                }
+                break;
+            case DOUBLE_SUM:
+                for (DoublePointData point : metric.getDoubleSumData().getPoints()) {
+                    sample(text, name, point.getAttributes(), null, null, format(point.getValue()));
+                }
+                break;
+            case LONG_GAUGE:
+                for (LongPointData point : metric.getLongGaugeData().getPoints()) {
+                    sample(text, name, point.getAttributes(), null, null, format(point.getValue()));
+                }
+                break;
+            case DOUBLE_GAUGE:
+                for (DoublePointData point : metric.getDoubleGaugeData().getPoints()) {
+                    sample(text, name, point.getAttributes(), null, null, format(point.getValue()));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void header(StringBuilder text, String name, String description, String type) {
+        if (description != null && !description.isEmpty()) {
+            text.append("# HELP ").append(name).append(' ')
+                    .append(description.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        }
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    /**
+     * Writes one sample line, with an extra label such as the bucket bound when one is given.
+     */
+    private void sample(StringBuilder text, String name, Attributes attributes, String extraName, String extraValue,
+                        String value) {
+        text.append(name);
+        if (!attributes.isEmpty() || extraName != null) {
+            text.append('{');
+            boolean[] first = {true};
+            attributes.forEach((key, attributeValue) -> {
+                if (!first[0]) {
+                    text.append(',');
+                }
+                first[0] = false;
+                label(text, sanitize(key.getKey()), String.valueOf(attributeValue));
+            });
+            if (extraName != null) {
+                if (!first[0]) {
+                    text.append(',');
+                }
+                label(text, extraName, extraValue);
+            }
+            text.append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    private void label(StringBuilder text, String name, String value) {
+        text.append(name).append("=\"")
+                .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append('"');
+    }
+
+    /**
+     * Replaces every character that is not allowed in a Prometheus name with an underscore.
+     */
+    private static String sanitize(String name) {
+        StringBuilder builder = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean valid = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':'
+                    || (c >= '0' && c <= '9' && i > 0);
+            builder.append(valid ? c : '_');
+        }
+        return builder.toString();
+    }
+
+    private static String format(double value) {
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return Double.toString(value);
+    }
+
+    private static String format(long value) {
+        return Long.toString(value);
+    }
+}
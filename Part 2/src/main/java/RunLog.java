@@ -0,0 +1,681 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This RunLog class reads and writes the predicate logs of the client runs, for the PredicateLogger, the
+ * PredicateAnalyzer and the RunLogConverter. A log is a sequence of predicate definitions, records, and outcomes:
+ * each record holds the outcomes of the predicates for one file as a true and an observed bitset (see
+ * PredicateRegistry), and the outcome of a run, whether it threw an exception, follows its last record. A record can
+ * also carry values of numeric variables, which are defined by name like the predicates.
+ *
+ * The binary format (run_*.bin) starts with the magic number "PLOG" and a version byte, followed by blocks. Each
+ * block is a type byte, the length of its payload, the payload, and the CRC32 of the payload:
+ *
+ *      D   dictionary  the ID of the first predicate defined, their count, and their names
+ *      R   records     the record count, the distinct (true, observed) bitset pairs of the block, the index of each
+ *                      record's pair as a byte, or a short if there are more than 256 pairs, then the records that
+ *                      end a run, as the number of them followed by (index, failed) pairs
+ *      V   variables   the ID of the first variable defined, their count, and their names
+ *      N   values      the values of the records of the R block that follows it: the record count, then for each
+ *                      record a bitset of the variables it has values for, followed by those values as doubles
+ *
+ * Most files of a run evaluate to one of a handful of bitset pairs, so a record usually takes a single byte. A block
+ * with a bad checksum is skipped, and a log cut off in the middle of a block is read up to that block. Lengths and
+ * counts are checked against MAX_BLOCK_BYTES and the bytes left in the block before anything is allocated for them,
+ * so a corrupt length fails the log instead of exhausting the heap. Blocks of
+ * unknown types are skipped as well, so logs with values can still be read by readers that only know D and R blocks.
+ *
+ * The text format (run_*.txt) is the one the PredicateLogger wrote before: PREDICATES lines with the IDs, a BITS line
+ * per record and an EXCEPTION line per run, with VARIABLES lines defining variables and a VALUES line of id=value
+ * pairs before a record that has values. The oldest text logs, with a name=value line per predicate and a line of
+ * dashes between files, can still be read.
+ */
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class RunLog {
+    static final int MAGIC = 0x504C4F47;
+    static final int VERSION = 1;
+
+    static final int DICTIONARY = 'D';
+    static final int RECORDS = 'R';
+    static final int VARIABLES = 'V';
+    static final int VALUES = 'N';
+
+    // Records per block; the pair index of a record must fit in a short
+    static int BLOCK_RECORDS = 4096;
+
+    // Well above the largest block a writer produces: 64 predicate names of up to 64 KB, or 4096 records with a value
+    // for each of 64 variables
+    static final int MAX_BLOCK_BYTES = 16 << 20;
+
+    /**
+     * Receives the contents of a log, in the order they were written.
+     */
+    public interface Sink extends Closeable {
+        void predicate(int id, String name) throws IOException;
+
+        void variable(int id, String name) throws IOException;
+
+        /**
+         * Sets the value of a variable for the next record.
+         */
+        void value(int id, double value) throws IOException;
+
+        void record(long trueBits, long observedBits) throws IOException;
+
+        /**
+         * Ends the run that the records since the last outcome belong to.
+         */
+        void outcome(boolean failed) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    /**
+     * Writes a log in the binary format. The records are kept until their block is full, and the last one is held
+     * back until the next record or outcome arrives, since the outcome is stored with it. New predicates are written
+     * together in one dictionary block before the next block of records.
+     */
+    public static class BinaryWriter implements Sink {
+        private final DataOutputStream out;
+        private final List<String> names = new ArrayList<>();
+        private int definedPredicates;
+        private final List<String> variables = new ArrayList<>();
+        private int definedVariables;
+
+        private final long[] trueBits = new long[BLOCK_RECORDS];
+        private final long[] observedBits = new long[BLOCK_RECORDS];
+        private final byte[] outcomes = new byte[BLOCK_RECORDS];
+        private int count;
+
+        // The variables each record has values for, and the values in order of variable ID
+        private final long[] valueBits = new long[BLOCK_RECORDS];
+        private final double[][] values = new double[BLOCK_RECORDS][];
+        private long nextValueBits;
+        private final double[] nextValues = new double[PredicateRegistry.MAX_VARIABLES];
+
+        public BinaryWriter(OutputStream out) throws IOException {
+            this.out = new DataOutputStream(out);
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        @Override
+        public void predicate(int id, String name) throws IOException {
+            if (id < names.size()) {
+                if (!names.get(id).equals(name)) {
+                    throw new IOException("Predicate " + id + " is already " + names.get(id) + ", not " + name);
+                }
+                return;
+            }
+            if (id != names.size()) {
+                throw new IOException("Predicate " + id + " defined before predicate " + names.size());
+            }
+            names.add(name);
+        }
+
+        @Override
+        public void variable(int id, String name) throws IOException {
+            if (id < variables.size()) {
+                if (!variables.get(id).equals(name)) {
+                    throw new IOException("Variable " + id + " is already " + variables.get(id) + ", not " + name);
+                }
+                return;
+            }
+            if (id != variables.size()) {
+                throw new IOException("Variable " + id + " defined before variable " + variables.size());
+            }
+            variables.add(name);
+        }
+
+        @Override
+        public void value(int id, double value) throws IOException {
+            if (id < 0 || id >= nextValues.length) {
+                throw new IOException("Invalid variable ID " + id);
+            }
+            nextValues[id] = value;
+            nextValueBits |= 1L << id;
+        }
+
+        @Override
+        public void record(long trueBits, long observedBits) throws IOException {
+            if (count == BLOCK_RECORDS) {
+                writeRecords(count - 1);
+            }
+            this.trueBits[count] = trueBits;
+            this.observedBits[count] = observedBits;
+            this.outcomes[count] = 0;
+            this.valueBits[count] = nextValueBits;
+            this.values[count] = null;
+            if (nextValueBits != 0) {
+                double[] present = new double[Long.bitCount(nextValueBits)];
+                int i = 0;
+                for (long bits = nextValueBits; bits != 0; bits &= bits - 1) {
+                    present[i++] = nextValues[Long.numberOfTrailingZeros(bits)];
+                }
+                this.values[count] = present;
+            }
+            nextValueBits = 0;
+            count++;
+        }
+
+        @Override
+        public void outcome(boolean failed) throws IOException {
+            if (count == 0 || outcomes[count - 1] != 0) {
+                // A run without records of its own still needs one to carry its outcome
+                record(0, 0);
+            }
+            outcomes[count - 1] = (byte) (failed ? 2 : 1);
+        }
+
+        /**
+         * Writes every record except the last, which may still get an outcome.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (count > 1) {
+                writeRecords(count - 1);
+            }
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (count > 0) {
+                writeRecords(count);
+            }
+            writeDictionary();
+            out.close();
+        }
+
+        private void writeDictionary() throws IOException {
+            if (definedPredicates < names.size()) {
+                writeNames(DICTIONARY, names, definedPredicates);
+                definedPredicates = names.size();
+            }
+            if (definedVariables < variables.size()) {
+                writeNames(VARIABLES, variables, definedVariables);
+                definedVariables = variables.size();
+            }
+        }
+
+        private void writeNames(int type, List<String> names, int first) throws IOException {
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeInt(first);
+            data.writeInt(names.size() - first);
+            for (int id = first; id < names.size(); id++) {
+                data.writeUTF(names.get(id));
+            }
+            writeBlock(type, payload);
+        }
+
+        /**
+         * Writes the values of the first n records as one block, if any of them has values.
+         */
+        private void writeValues(int n) throws IOException {
+            int present = 0;
+            for (int i = 0; i < n; i++) {
+                present += Long.bitCount(valueBits[i]);
+            }
+            if (present == 0) {
+                return;
+            }
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(8 * (n + present) + 4);
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                data.writeLong(valueBits[i]);
+                for (int v = 0; v < Long.bitCount(valueBits[i]); v++) {
+                    data.writeDouble(values[i][v]);
+                }
+            }
+            writeBlock(VALUES, payload);
+        }
+
+        /**
+         * Writes the first n records as one block and moves the rest to the front.
+         */
+        private void writeRecords(int n) throws IOException {
+            writeDictionary();
+            writeValues(n);
+
+            // The distinct bitset pairs, in order of first use
+            Map<Pair, Integer> pairs = new HashMap<>();
+            List<Pair> distinct = new ArrayList<>();
+            int[] index = new int[n];
+            int ended = 0;
+            for (int i = 0; i < n; i++) {
+                Pair pair = new Pair(trueBits[i], observedBits[i]);
+                Integer known = pairs.get(pair);
+                if (known == null) {
+                    known = distinct.size();
+                    pairs.put(pair, known);
+                    distinct.add(pair);
+                }
+                index[i] = known;
+                if (outcomes[i] != 0) {
+                    ended++;
+                }
+            }
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(16 * distinct.size() + 2 * n + 16);
+            DataOutputStream data = new DataOutputStream(payload);
+            data.writeInt(n);
+            data.writeInt(distinct.size());
+            for (Pair pair : distinct) {
+                data.writeLong(pair.trueBits);
+            }
+            for (Pair pair : distinct) {
+                data.writeLong(pair.observedBits);
+            }
+            boolean wide = distinct.size() > 256;
+            for (int i = 0; i < n; i++) {
+                if (wide) {
+                    data.writeShort(index[i]);
+                } else {
+                    data.writeByte(index[i]);
+                }
+            }
+            data.writeInt(ended);
+            for (int i = 0; i < n; i++) {
+                if (outcomes[i] != 0) {
+                    data.writeInt(i);
+                    data.writeByte(outcomes[i] == 2 ? 1 : 0);
+                }
+            }
+            writeBlock(RECORDS, payload);
+
+            int remaining = count - n;
+            System.arraycopy(trueBits, n, trueBits, 0, remaining);
+            System.arraycopy(observedBits, n, observedBits, 0, remaining);
+            System.arraycopy(outcomes, n, outcomes, 0, remaining);
+            System.arraycopy(valueBits, n, valueBits, 0, remaining);
+            System.arraycopy(values, n, values, 0, remaining);
+            count = remaining;
+        }
+
+        private void writeBlock(int type, ByteArrayOutputStream payload) throws IOException {
+            CRC32 crc = new CRC32();
+            byte[] bytes = payload.toByteArray();
+            crc.update(bytes, 0, bytes.length);
+            out.writeByte(type);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+        }
+    }
+
+    private static final class Pair {
+        final long trueBits;
+        final long observedBits;
+
+        Pair(long trueBits, long observedBits) {
+            this.trueBits = trueBits;
+            this.observedBits = observedBits;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Pair && ((Pair) other).trueBits == trueBits
+                    && ((Pair) other).observedBits == observedBits;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(trueBits * 31 + observedBits);
+        }
+    }
+
+    /**
+     * Reads a binary log into the sink. Does not close the sink.
+     */
+    public static void readBinary(InputStream input, Sink sink) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a run log");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported run log version " + version);
+        }
+        readBlocks(in, sink);
+    }
+
+    /**
+     * Reads the blocks of a binary log into the sink, starting at a block boundary after the header. Used to pick up
+     * a log where an earlier read of it ended.
+     */
+    public static void readBlocks(InputStream input, Sink sink) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        CRC32 crc = new CRC32();
+
+        // The values block for the records block that comes next
+        Values values = null;
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return;
+            }
+
+            byte[] payload;
+            int checksum;
+            try {
+                int length = in.readInt();
+                if (length < 0 || length > MAX_BLOCK_BYTES) {
+                    throw new IOException("Invalid block length " + length);
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                checksum = in.readInt();
+            } catch (EOFException e) {
+                System.out.println("Run log ends in the middle of a block, reading up to it");
+                return;
+            }
+
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            if ((int) crc.getValue() != checksum) {
+                System.out.println("Skipping a run log block with a bad checksum");
+                continue;
+            }
+
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(payload));
+            if (type == DICTIONARY || type == VARIABLES) {
+                int first = data.readInt();
+                int count = readCount(data, 2);
+                for (int i = 0; i < count; i++) {
+                    if (type == DICTIONARY) {
+                        sink.predicate(first + i, data.readUTF());
+                    } else {
+                        sink.variable(first + i, data.readUTF());
+                    }
+                }
+            } else if (type == VALUES) {
+                values = readValues(data);
+            } else if (type == RECORDS) {
+                readRecords(data, values, sink);
+                values = null;
+            }
+            // Blocks of unknown types are skipped, so later versions can add their own
+        }
+    }
+
+    /**
+     * Reads the count of the entries that follow in a block, each taking at least the given number of bytes, and
+     * checks that the rest of the block can hold them.
+     */
+    private static int readCount(DataInputStream data, int minBytes) throws IOException {
+        int count = data.readInt();
+        if (count < 0 || (long) count * minBytes > data.available()) {
+            throw new IOException("Invalid count " + count + " in a run log block");
+        }
+        return count;
+    }
+
+    /**
+     * The contents of a values block.
+     */
+    private static final class Values {
+        long[] valueBits;
+        double[][] values;
+    }
+
+    private static Values readValues(DataInputStream data) throws IOException {
+        Values values = new Values();
+        int count = readCount(data, 8);
+        values.valueBits = new long[count];
+        values.values = new double[count][];
+        for (int i = 0; i < count; i++) {
+            values.valueBits[i] = data.readLong();
+            values.values[i] = new double[Long.bitCount(values.valueBits[i])];
+            for (int v = 0; v < values.values[i].length; v++) {
+                values.values[i][v] = data.readDouble();
+            }
+        }
+        return values;
+    }
+
+    private static void readRecords(DataInputStream data, Values values, Sink sink) throws IOException {
+        int count = readCount(data, 1);
+        if (values != null && values.valueBits.length != count) {
+            System.out.println("Skipping a values block that does not match its records");
+            values = null;
+        }
+        int distinct = readCount(data, 16);
+        long[] trueBits = new long[distinct];
+        long[] observedBits = new long[distinct];
+        for (int i = 0; i < distinct; i++) {
+            trueBits[i] = data.readLong();
+        }
+        for (int i = 0; i < distinct; i++) {
+            observedBits[i] = data.readLong();
+        }
+        int[] index = new int[count];
+        for (int i = 0; i < count; i++) {
+            index[i] = distinct > 256 ? data.readUnsignedShort() : data.readUnsignedByte();
+        }
+
+        // The records that end a run, in order
+        int ended = readCount(data, 5);
+        int[] endedAt = new int[ended];
+        boolean[] failed = new boolean[ended];
+        for (int i = 0; i < ended; i++) {
+            endedAt[i] = data.readInt();
+            failed[i] = data.readByte() != 0;
+        }
+
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            if (values != null) {
+                int v = 0;
+                for (long bits = values.valueBits[i]; bits != 0; bits &= bits - 1) {
+                    sink.value(Long.numberOfTrailingZeros(bits), values.values[i][v++]);
+                }
+            }
+            sink.record(trueBits[index[i]], observedBits[index[i]]);
+            if (next < ended && endedAt[next] == i) {
+                sink.outcome(failed[next]);
+                next++;
+            }
+        }
+    }
+
+    /**
+     * Writes a log in the text format. The IDs of new predicates are written in a PREDICATES line before the next
+     * record.
+     */
+    public static class TextWriter implements Sink {
+        private final Writer out;
+        private final List<String> names = new ArrayList<>();
+        private int describedPredicates;
+        private final List<String> variables = new ArrayList<>();
+        private int describedVariables;
+        private final StringBuilder nextValues = new StringBuilder();
+
+        public TextWriter(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void predicate(int id, String name) {
+            while (names.size() <= id) {
+                names.add(null);
+            }
+            names.set(id, name);
+        }
+
+        @Override
+        public void variable(int id, String name) {
+            while (variables.size() <= id) {
+                variables.add(null);
+            }
+            variables.set(id, name);
+        }
+
+        @Override
+        public void value(int id, double value) {
+            nextValues.append(' ').append(id).append('=').append(value);
+        }
+
+        @Override
+        public void record(long trueBits, long observedBits) throws IOException {
+            if (names.size() != describedPredicates) {
+                out.write(describe("PREDICATES", names));
+                describedPredicates = names.size();
+            }
+            if (variables.size() != describedVariables) {
+                out.write(describe("VARIABLES", variables));
+                describedVariables = variables.size();
+            }
+            if (nextValues.length() > 0) {
+                out.write("VALUES" + nextValues + "\n");
+                nextValues.setLength(0);
+            }
+            out.write("BITS " + Long.toHexString(trueBits) + " " + Long.toHexString(observedBits) + "\n");
+        }
+
+        private static String describe(String type, List<String> names) {
+            StringBuilder builder = new StringBuilder(type);
+            for (int id = 0; id < names.size(); id++) {
+                builder.append(' ').append(id).append('=').append(names.get(id));
+            }
+            return builder.append('\n').toString();
+        }
+
+        @Override
+        public void outcome(boolean failed) throws IOException {
+            out.write("EXCEPTION=" + (failed ? "1" : "0") + "\n");
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a text log into the sink. Predicates of the oldest format, which are given by name, are numbered in the
+     * order they first appear. A run that has no EXCEPTION line is left unfinished. Does not close the sink.
+     */
+    public static void readText(BufferedReader in, Sink sink) throws IOException {
+        Map<String, Integer> ids = new HashMap<>();
+
+        // The predicates of the current file in the oldest format
+        long trueBits = 0;
+        long observedBits = 0;
+
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            if (line.startsWith("----------------------------------")) {
+                if (observedBits != 0) {
+                    sink.record(trueBits, observedBits);
+                }
+                trueBits = 0;
+                observedBits = 0;
+                continue;
+            }
+
+            if (line.startsWith("PREDICATES")) {
+                for (String entry : line.substring("PREDICATES".length()).trim().split(" ")) {
+                    int split = entry.indexOf('=');
+                    if (split > 0) {
+                        int id = Integer.parseInt(entry.substring(0, split));
+                        String name = entry.substring(split + 1);
+                        ids.put(name, id);
+                        sink.predicate(id, name);
+                    }
+                }
+                continue;
+            }
+
+            if (line.startsWith("VARIABLES") || line.startsWith("VALUES")) {
+                String type = line.startsWith("VALUES") ? "VALUES" : "VARIABLES";
+                for (String entry : line.substring(type.length()).trim().split(" ")) {
+                    int split = entry.indexOf('=');
+                    if (split > 0) {
+                        int id = Integer.parseInt(entry.substring(0, split));
+                        if (type.equals("VALUES")) {
+                            sink.value(id, Double.parseDouble(entry.substring(split + 1)));
+                        } else {
+                            sink.variable(id, entry.substring(split + 1));
+                        }
+                    }
+                }
+                continue;
+            }
+
+            if (line.startsWith("BITS ")) {
+                if (observedBits != 0) {
+                    sink.record(trueBits, observedBits);
+                }
+                trueBits = 0;
+                observedBits = 0;
+
+                String[] parts = line.split(" ");
+                sink.record(Long.parseUnsignedLong(parts[1], 16), Long.parseUnsignedLong(parts[2], 16));
+                continue;
+            }
+
+            if (line.startsWith("EXCEPTION=")) {
+                if (observedBits != 0) {
+                    sink.record(trueBits, observedBits);
+                }
+                trueBits = 0;
+                observedBits = 0;
+                sink.outcome(line.endsWith("1"));
+                continue;
+            }
+
+            int split = line.indexOf('=');
+            if (split > 0 && split == line.lastIndexOf('=')) {
+                String name = line.substring(0, split);
+                Integer id = ids.get(name);
+                if (id == null) {
+                    id = ids.size();
+                    if (id == PredicateRegistry.MAX_PREDICATES) {
+                        throw new IOException("More than " + PredicateRegistry.MAX_PREDICATES + " predicates in log");
+                    }
+                    ids.put(name, id);
+                    sink.predicate(id, name);
+                }
+                long bit = 1L << id;
+                observedBits |= bit;
+                if (Boolean.parseBoolean(line.substring(split + 1))) {
+                    trueBits |= bit;
+                } else {
+                    trueBits &= ~bit;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This RunLogConverter program converts text predicate logs to the binary RunLog format, writing run_X.bin next to
+ * each run_X.txt and printing the size of both. The text logs are left in place; the PredicateAnalyzer reads the
+ * binary log instead of a text log with the same name.
+ *
+ * Usage: java RunLogConverter [run_X.txt ...]
+ * Without arguments, every run_*.txt in the working directory is converted.
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+
+public class RunLogConverter {
+
+    public static void main(String[] args) {
+        File[] textLogs;
+        if (args.length > 0) {
+            textLogs = new File[args.length];
+            for (int i = 0; i < args.length; i++) {
+                textLogs[i] = new File(args[i]);
+            }
+        } else {
+            textLogs = new File(".").listFiles((dir, name) -> name.startsWith("run_") && name.endsWith(".txt"));
+        }
+
+        if (textLogs == null || textLogs.length == 0) {
+            System.out.println("No run_*.txt files found.");
+            return;
+        }
+
+        long textBytes = 0;
+        long binaryBytes = 0;
+        for (File textLog : textLogs) {
+            File binaryLog = new File(textLog.getPath().replaceAll("\\.txt$", "") + ".bin");
+            try {
+                convert(textLog, binaryLog);
+            } catch (IOException e) {
+                e.printStackTrace();
+                continue;
+            }
+            System.out.println(textLog.getName() + " (" + textLog.length() + " bytes) -> "
+                    + binaryLog.getName() + " (" + binaryLog.length() + " bytes)");
+            textBytes += textLog.length();
+            binaryBytes += binaryLog.length();
+        }
+        System.out.println("Total: " + textBytes + " bytes -> " + binaryBytes + " bytes");
+    }
+
+    static void convert(File textLog, File binaryLog) throws IOException {
+        try (BufferedReader in = new BufferedReader(new FileReader(textLog));
+             RunLog.BinaryWriter out = new RunLog.BinaryWriter(
+                     new BufferedOutputStream(new FileOutputStream(binaryLog)))) {
+            RunLog.readText(in, out);
+        }
+    }
+}
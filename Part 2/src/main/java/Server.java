@@ -25,6 +25,17 @@ public class Server {
 
     static int BUFFER_SIZE = 4096;
 
+    // Largest frame of file data on the wire, so neither side ever holds a whole file in memory
+    static int CHUNK_SIZE = 1024 * 1024;
+
+    // Frame types that introduce each entry of a transfer
+    static final int FRAME_END = 0;
+    static final int FRAME_FILE = 1;
+    static final int FRAME_BATCH = 2;
+
+    // Most small files the client may pack into one batch frame
+    static int MAX_BATCH_FILES = 1024;
+
     static boolean USE_ADVANCED_FEATURES = true;
 
     // Used for symmetric encryption and decryption
@@ -32,10 +43,22 @@ public class Server {
     static byte[] IV = {0x00, 0x10, 0x05, 0x20, 0x00, 0x22, 0x40, 0x21, 0x00, 0x00, 0x07, 0x09, 0x00, 0x0A, 0x00, 0x11};
 
     public Server(int portNumber){
+        this(null, portNumber);
+    }
+
+    /**
+     * Serves on a socket that is already bound, so a caller that binds port 0 knows the port, and can connect, before
+     * the Server starts accepting.
+     */
+    public Server(ServerSocket serverSocket){
+        this(serverSocket, serverSocket.getLocalPort());
+    }
+
+    private Server(ServerSocket bound, int portNumber){
         this.portNumber = portNumber;
         executor = Executors.newFixedThreadPool(6);
 
-        try(ServerSocket serverSocket = new ServerSocket(this.portNumber)) {
+        try(ServerSocket serverSocket = bound != null ? bound : new ServerSocket(this.portNumber)) {
             while (true) { // listen for connections
                 Socket client = serverSocket.accept();
 
@@ -64,6 +87,7 @@ public class Server {
     }
 
     public static void main(String[] args) {
+        TransferEvents.startRecordingIfRequested();
         new Server(5000);
     }
 }
@@ -0,0 +1,148 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This StageMetrics class records the latency and throughput of each stage of the transfer pipeline, once per file.
+ * Every measurement carries the stage, the size class of the file and the codec, and since there are only a few of
+ * each, all of the attribute sets are built up front. Recording a measurement only indexes into that table, so it
+ * does not allocate and can be left on.
+ *
+ * The time of a stage is the time actually spent in it, summed over the chunks of the file, not the time between
+ * the first and last chunk, so the stages that run interleaved on the same thread do not count each other's work.
+ *
+ * Both sides record while the span of the file is current, so a sampled file can become the exemplar of the latency
+ * bucket it lands in, see Telemetry.
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.DoubleHistogram;
+import io.opentelemetry.api.metrics.Meter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+public class StageMetrics {
+    public enum Stage {
+        READ_FILE("read_file"),
+        COMPRESS_FILE("compress_file"),
+        ENCRYPT_FILE("encrypt_file"),
+        SEND_DATA("send_data"),
+        READ_DATA("read_data"),
+        DECRYPT_DATA("decrypt_data"),
+        DECOMPRESS_DATA("decompress_data"),
+        WRITE_FILE("write_file");
+
+        final String spanName;
+
+        Stage(String spanName) {
+            this.spanName = spanName;
+        }
+    }
+
+    private static final AttributeKey<String> STAGE = AttributeKey.stringKey("stage");
+    private static final AttributeKey<String> SIZE_CLASS = AttributeKey.stringKey("file.size_class");
+    private static final AttributeKey<String> CODEC = AttributeKey.stringKey("codec");
+
+    // Files below each bound fall into the matching class, anything larger is "large"
+    private static final long[] SIZE_BOUNDS = {64L * 1024L, 16L * 1024L * 1024L};
+    private static final String[] SIZE_CLASSES = {"small", "medium", "large"};
+
+    public static final int CODEC_NONE = 0;
+    public static final int CODEC_DEFLATE = 1;
+    private static final String[] CODECS = {"none", "deflate"};
+
+    private final DoubleHistogram latency;
+    private final DoubleHistogram throughput;
+    private final Attributes[][][] attributes;
+
+    public StageMetrics(Meter meter) {
+        latency = meter.histogramBuilder("transfer.stage.duration")
+                .setDescription("Time spent in one pipeline stage for one file")
+                .setUnit("s")
+                .setExplicitBucketBoundariesAdvice(Arrays.asList(
+                        0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1.0, 5.0, 10.0, 60.0))
+                .build();
+        throughput = meter.histogramBuilder("transfer.stage.throughput")
+                .setDescription("Bytes per second through one pipeline stage for one file")
+                .setUnit("By/s")
+                .setExplicitBucketBoundariesAdvice(Arrays.asList(
+                        1e5, 1e6, 1e7, 5e7, 1e8, 2.5e8, 5e8, 1e9, 2.5e9, 5e9))
+                .build();
+
+        Stage[] stages = Stage.values();
+        attributes = new Attributes[stages.length][SIZE_CLASSES.length][CODECS.length];
+        for (Stage stage : stages) {
+            for (int size = 0; size < SIZE_CLASSES.length; size++) {
+                for (int codec = 0; codec < CODECS.length; codec++) {
+                    attributes[stage.ordinal()][size][codec] = Attributes.of(
+                            STAGE, stage.spanName, SIZE_CLASS, SIZE_CLASSES[size], CODEC, CODECS[codec]);
+                }
+            }
+        }
+    }
+
+    public static int codec(boolean compressed) {
+        return compressed ? CODEC_DEFLATE : CODEC_NONE;
+    }
+
+    /**
+     * Records that a stage processed the given bytes of a file of the given size in the given time.
+     */
+    public void record(Stage stage, long fileSize, int codec, long bytes, long nanos) {
+        Attributes bound = attributes[stage.ordinal()][sizeClass(fileSize)][codec];
+        latency.record(nanos / 1e9, bound);
+        if (nanos > 0) {
+            throughput.record(bytes * 1e9 / nanos, bound);
+        }
+    }
+
+    private static int sizeClass(long size) {
+        for (int i = 0; i < SIZE_BOUNDS.length; i++) {
+            if (size < SIZE_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return SIZE_BOUNDS.length;
+    }
+
+    /**
+     * Passes writes through to another stream and adds up the time spent in them, so a stage that writes into the
+     * next one can take that time off its own.
+     */
+    public static class TimedOutputStream extends FilterOutputStream {
+        long nanos;
+
+        public TimedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            out.write(b);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            out.write(b, off, len);
+            nanos += System.nanoTime() - start;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            out.flush();
+            nanos += System.nanoTime() - start;
+        }
+    }
+}
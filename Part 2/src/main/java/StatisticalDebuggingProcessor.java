@@ -0,0 +1,210 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This StatisticalDebuggingProcessor computes the Statistical Debugging metrics of the PredicateAnalyzer live, from
+ * the spans of the Server, so a predicate that starts to predict failures shows up on the metrics within one export
+ * interval instead of after the run logs are collected and analyzed.
+ *
+ * The Client sends its predicate outcomes for every file or batch after the data, and the FolderTransferRequest puts
+ * them on its receive_file or receive_batch span as pred.bits, over the IDs of the PredicateRegistry of the server.
+ * The outcome of the file comes from the checksum_compare span under it, whose pred.checksum_failed attribute is
+ * held until the file span ends. A file whose checksum failed, or whose span has an error status or recorded an
+ * exception, counts as failed. Only SERVER spans are counted, so when the Client runs in the same JVM, as in the
+ * InstrumentationBenchmark, its own spans with pred.bits are not counted twice. Files that were not sampled never
+ * reach a span processor, so with telemetry.sampleRatio below 1 the metrics are taken over a random sample of files.
+ *
+ * Every counter is a LongAdder, striped across the threads that end spans, so transfers never wait on each other to
+ * count. When metrics are collected, the predicates with at least telemetry.debuggingMinTrue true observations
+ * (default 10) are ranked by Increase, and the first telemetry.debuggingTop (default 10) are reported as the gauges
+ * statistical_debugging_increase, _failure and _context with the predicate and its rank as attributes. The three
+ * gauges share one batch callback, so they are recorded from the same ranking and a rank names the same predicate in
+ * all of them. The number of files counted so far is statistical_debugging_files, by outcome.
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.metrics.ObservableDoubleMeasurement;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.EventData;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class StatisticalDebuggingProcessor implements SpanProcessor {
+    static int TOP = Integer.getInteger("telemetry.debuggingTop", 10);
+    static long MIN_TRUE = Long.getLong("telemetry.debuggingMinTrue", 10L);
+
+    static final AttributeKey<List<Long>> PREDICATE_BITS = AttributeKey.longArrayKey("pred.bits");
+    private static final AttributeKey<Boolean> CHECKSUM_FAILED = AttributeKey.booleanKey("pred.checksum_failed");
+    private static final AttributeKey<String> PREDICATE = AttributeKey.stringKey("predicate");
+    private static final AttributeKey<Long> RANK = AttributeKey.longKey("rank");
+    private static final AttributeKey<Boolean> FAILED = AttributeKey.booleanKey("failed");
+
+    // Counters by predicate ID, see PredicateRegistry
+    private final LongAdder[] trueCount = adders();
+    private final LongAdder[] trueFail = adders();
+    private final LongAdder[] observedFail = adders();
+    private final LongAdder[] observedSuccess = adders();
+    private final LongAdder failedFiles = new LongAdder();
+    private final LongAdder successfulFiles = new LongAdder();
+
+    // Whether a checksum failed under each file span that has not ended yet, by span ID
+    private final ConcurrentHashMap<String, Boolean> checksumFailed = new ConcurrentHashMap<>();
+
+    private static class Ranked {
+        String predicate;
+        double failure, context, increase;
+    }
+
+    public StatisticalDebuggingProcessor(Meter meter) {
+        ObservableDoubleMeasurement increase = meter.gaugeBuilder("statistical_debugging_increase")
+                .setDescription("Increase of the most suspicious predicates, by rank")
+                .buildObserver();
+        ObservableDoubleMeasurement failure = meter.gaugeBuilder("statistical_debugging_failure")
+                .setDescription("Failure of the most suspicious predicates, by rank")
+                .buildObserver();
+        ObservableDoubleMeasurement context = meter.gaugeBuilder("statistical_debugging_context")
+                .setDescription("Context of the most suspicious predicates, by rank")
+                .buildObserver();
+        meter.batchCallback(() -> report(increase, failure, context), increase, failure, context);
+        meter.counterBuilder("statistical_debugging_files")
+                .setDescription("Files counted by the statistical debugging, by outcome")
+                .buildWithCallback(measurement -> {
+                    measurement.record(failedFiles.sum(), Attributes.of(FAILED, true));
+                    measurement.record(successfulFiles.sum(), Attributes.of(FAILED, false));
+                });
+    }
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[PredicateRegistry.MAX_PREDICATES];
+        for (int id = 0; id < adders.length; id++) {
+            adders[id] = new LongAdder();
+        }
+        return adders;
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        if (span.getKind() != SpanKind.SERVER) {
+            return;
+        }
+
+        Boolean checksum = span.getAttribute(CHECKSUM_FAILED);
+        if (checksum != null && span.getParentSpanContext().isValid()) {
+            checksumFailed.merge(span.getParentSpanContext().getSpanId(), checksum, Boolean::logicalOr);
+        }
+
+        Boolean childFailed = checksumFailed.remove(span.getSpanContext().getSpanId());
+        List<Long> bits = span.getAttribute(PREDICATE_BITS);
+        if (bits == null || bits.size() != 2) {
+            return;
+        }
+        boolean failed = Boolean.TRUE.equals(childFailed) || hasError(span);
+        count(bits.get(0), bits.get(1), failed);
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    private void count(long trueBits, long observedBits, boolean failed) {
+        (failed ? failedFiles : successfulFiles).increment();
+        for (long remaining = observedBits; remaining != 0; remaining &= remaining - 1) {
+            int id = Long.numberOfTrailingZeros(remaining);
+            if ((trueBits & (1L << id)) != 0) {
+                trueCount[id].increment();
+                if (failed) trueFail[id].increment();
+            }
+            (failed ? observedFail : observedSuccess)[id].increment();
+        }
+    }
+
+    private static boolean hasError(ReadableSpan span) {
+        if (span.toSpanData().getStatus().getStatusCode() == StatusCode.ERROR) {
+            return true;
+        }
+        for (EventData event : span.toSpanData().getEvents()) {
+            if (event.getName().equals("exception")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes one ranking and records the metrics of each rank on the three gauges.
+     */
+    private void report(ObservableDoubleMeasurement increase, ObservableDoubleMeasurement failure,
+                        ObservableDoubleMeasurement context) {
+        List<Ranked> ranking = ranking();
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            Ranked ranked = ranking.get(rank);
+            Attributes attributes = Attributes.of(PREDICATE, ranked.predicate, RANK, rank + 1L);
+            increase.record(ranked.increase, attributes);
+            failure.record(ranked.failure, attributes);
+            context.record(ranked.context, attributes);
+        }
+    }
+
+    /**
+     * Returns the predicates with enough true observations, most suspicious first, at most TOP of them. The counters
+     * are read one at a time while files are still being counted, so a ranking can be off by the files that ended
+     * while it was taken.
+     */
+    private List<Ranked> ranking() {
+        List<Ranked> ranking = new ArrayList<>();
+        int predicates = PredicateRegistry.size();
+        for (int id = 0; id < predicates; id++) {
+            long isTrue = trueCount[id].sum();
+            if (isTrue == 0 || isTrue < MIN_TRUE) continue;
+
+            long fail = observedFail[id].sum();
+            long observed = fail + observedSuccess[id].sum();
+            Ranked ranked = new Ranked();
+            ranked.predicate = PredicateRegistry.name(id);
+            ranked.failure = (double) trueFail[id].sum() / isTrue;
+            ranked.context = observed > 0 ? (double) fail / observed : 0;
+            ranked.increase = ranked.failure - ranked.context;
+            ranking.add(ranked);
+        }
+        ranking.sort(Comparator.comparingDouble((Ranked ranked) -> ranked.increase).reversed());
+        return ranking.size() > TOP ? ranking.subList(0, TOP) : ranking;
+    }
+
+    @Override
+    public CompletableResultCode shutdown() {
+        checksumFailed.clear();
+        return CompletableResultCode.ofSuccess();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return CompletableResultCode.ofSuccess();
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This SyntheticRunLogs program writes binary run logs (see RunLog) with bugs planted in them, so the
+ * PredicateAnalyzer can be measured on far more runs than the Client produces and checked against a known answer.
+ *
+ * Every run has synthetic.recordsPerRun records (default 1), and the runs are spread over synthetic.files logs
+ * (default 16), each log holding many runs one after the other. Each record observes synthetic.predicates predicates
+ * (default 32, at most 64) and has a value for two variables:
+ *
+ *      pred.bug_N          the synthetic.bugs planted bugs (default 2), each true in 10% of the records
+ *      pred.noise_N        the rest, each observed in about 90% of the records and true in 1/2 to 1/16 of those
+ *      synthetic.load      a whole number from 0 to 999, so it has at most 1000 distinct values
+ *      synthetic.latency   a time in milliseconds, log-normal around 20 ms with about 1% above 200 ms, as a double
+ *                          that is different in nearly every record
+ *
+ * A run fails with probability synthetic.bugFailureRate (default 0.9) if a bug predicate is true in its last record,
+ * its load is above synthetic.loadThreshold (default 950) or its latency is above synthetic.latencyThreshold (default
+ * 200), and with probability synthetic.failureRate (default 0.05) otherwise. So the bug predicates should have the
+ * highest Increase, and the best thresholds of the two variables should be close to theirs.
+ *
+ * Real predicates are functions of a few properties of a file, so a run log has few distinct records. By default the
+ * noise of each record is one of synthetic.profiles (default 1024) profiles drawn up front, which gives the same few
+ * distinct records. With synthetic.profiles=0 every noise predicate is drawn for every record instead, so nearly every
+ * record is distinct, the worst case for the table of distinct records the analyzer keeps. The same synthetic.seed
+ * gives the same logs.
+ *
+ * Usage: java SyntheticRunLogs <folder> [records]
+ */
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+public class SyntheticRunLogs {
+    static int PREDICATES = Integer.getInteger("synthetic.predicates", 32);
+    static int BUGS = Integer.getInteger("synthetic.bugs", 2);
+    static int FILES = Integer.getInteger("synthetic.files", 16);
+    static int RECORDS_PER_RUN = Integer.getInteger("synthetic.recordsPerRun", 1);
+    static int PROFILES = Integer.getInteger("synthetic.profiles", 1024);
+    static int LOAD_THRESHOLD = Integer.getInteger("synthetic.loadThreshold", 950);
+    static double LATENCY_THRESHOLD = Double.parseDouble(System.getProperty("synthetic.latencyThreshold", "200"));
+    static double FAILURE_RATE = Double.parseDouble(System.getProperty("synthetic.failureRate", "0.05"));
+    static double BUG_FAILURE_RATE = Double.parseDouble(System.getProperty("synthetic.bugFailureRate", "0.9"));
+    static long SEED = Long.getLong("synthetic.seed", 3195L);
+
+    static final String LOAD = "synthetic.load";
+    static final String LATENCY = "synthetic.latency";
+    static final double LATENCY_MEDIAN = 20;
+    static final double LATENCY_SIGMA = 1;
+    static final double BUG_RATE = 0.1;
+    static final double OBSERVED_RATE = 0.9;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Please provide a folder name");
+            System.exit(1);
+        }
+        long records = args.length > 1 ? Long.parseLong(args[1]) : 1000000L;
+
+        File folder = new File(args[0]);
+        folder.mkdirs();
+        long start = System.nanoTime();
+        generate(folder, records);
+        System.out.println("Wrote " + records + " records to " + FILES + " logs in "
+                + (System.nanoTime() - start) / 1000000 + " ms.");
+    }
+
+    /**
+     * Returns the ID of the Nth planted bug. The bugs are spread out between the noise predicates.
+     */
+    static int bugId(int bug) {
+        return bug * PREDICATES / BUGS;
+    }
+
+    static String bugName(int bug) {
+        return "pred.bug_" + bug;
+    }
+
+    /**
+     * Writes run_synthetic_N.bin logs to the folder, with the given number of records between them.
+     */
+    static void generate(File folder, long records) throws IOException {
+        if (PREDICATES > PredicateRegistry.MAX_PREDICATES || BUGS < 1 || BUGS > PREDICATES) {
+            throw new IllegalArgumentException("Need 1 to synthetic.predicates bugs and at most "
+                    + PredicateRegistry.MAX_PREDICATES + " predicates");
+        }
+
+        String[] names = new String[PREDICATES];
+        long bugMask = 0;
+        for (int bug = 0; bug < BUGS; bug++) {
+            names[bugId(bug)] = bugName(bug);
+            bugMask |= 1L << bugId(bug);
+        }
+        for (int id = 0; id < PREDICATES; id++) {
+            if (names[id] == null) names[id] = "pred.noise_" + id;
+        }
+
+        SplittableRandom random = new SplittableRandom(SEED);
+
+        // Each noise predicate is true with probability 1/2, 1/4, 1/8 or 1/16 where it is observed
+        double[] trueRate = new double[PREDICATES];
+        for (int id = 0; id < PREDICATES; id++) {
+            trueRate[id] = 1.0 / (2 << random.nextInt(4));
+        }
+        long[] profileTrue = new long[PROFILES];
+        long[] profileObserved = new long[PROFILES];
+        for (int profile = 0; profile < PROFILES; profile++) {
+            long[] noise = noise(random, trueRate, bugMask);
+            profileTrue[profile] = noise[0];
+            profileObserved[profile] = noise[1];
+        }
+
+        for (int file = 0; file < FILES; file++) {
+            long fileRecords = records / FILES + (file < records % FILES ? 1 : 0);
+            // Each log has a generator of its own, so its records do not depend on the other logs
+            SplittableRandom fileRandom = random.split();
+            File log = new File(folder, "run_synthetic_" + file + ".bin");
+            try (RunLog.BinaryWriter out = new RunLog.BinaryWriter(
+                    new BufferedOutputStream(new FileOutputStream(log), 1 << 16))) {
+                for (int id = 0; id < PREDICATES; id++) {
+                    out.predicate(id, names[id]);
+                }
+                out.variable(0, LOAD);
+                out.variable(1, LATENCY);
+
+                for (long record = 0; record < fileRecords; record++) {
+                    long trueBits;
+                    long observedBits;
+                    if (PROFILES > 0) {
+                        int profile = fileRandom.nextInt(PROFILES);
+                        trueBits = profileTrue[profile];
+                        observedBits = profileObserved[profile];
+                    } else {
+                        long[] noise = noise(fileRandom, trueRate, bugMask);
+                        trueBits = noise[0];
+                        observedBits = noise[1];
+                    }
+                    for (int bug = 0; bug < BUGS; bug++) {
+                        if (fileRandom.nextDouble() < BUG_RATE) trueBits |= 1L << bugId(bug);
+                    }
+                    int load = fileRandom.nextInt(1000);
+                    double latency = LATENCY_MEDIAN * Math.exp(LATENCY_SIGMA * gaussian(fileRandom));
+
+                    out.value(0, load);
+                    out.value(1, latency);
+                    out.record(trueBits, observedBits | bugMask);
+                    if ((record + 1) % RECORDS_PER_RUN == 0 || record + 1 == fileRecords) {
+                        boolean bug = (trueBits & bugMask) != 0 || load > LOAD_THRESHOLD
+                                || latency > LATENCY_THRESHOLD;
+                        out.outcome(fileRandom.nextDouble() < (bug ? BUG_FAILURE_RATE : FAILURE_RATE));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws the noise predicates of one record or profile, returning its true and observed bits.
+     */
+    private static long[] noise(SplittableRandom random, double[] trueRate, long bugMask) {
+        long trueBits = 0;
+        long observedBits = 0;
+        for (int id = 0; id < trueRate.length; id++) {
+            if ((bugMask & (1L << id)) != 0 || random.nextDouble() >= OBSERVED_RATE) continue;
+            observedBits |= 1L << id;
+            if (random.nextDouble() < trueRate[id]) trueBits |= 1L << id;
+        }
+        return new long[]{trueBits, observedBits};
+    }
+
+    /**
+     * Returns a standard normal value, by the Box-Muller transform since SplittableRandom has no nextGaussian.
+     */
+    private static double gaussian(SplittableRandom random) {
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+}
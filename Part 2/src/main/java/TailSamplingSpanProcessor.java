@@ -0,0 +1,210 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TailSamplingSpanProcessor holds back finished spans until the local root of their span tree ends, then decides
+ * whether the whole tree is exported. A local root is a span whose parent is remote, or a child of the connection
+ * span that starts the trace, so in this program the decision is made once per file or batch.
+ *
+ * A tree is always kept if any of its spans recorded an exception, has an error status, reports a failed checksum or
+ * took longer than the slow threshold. Every other tree is kept with the configured probability and dropped
+ * otherwise. The spans of one tree are only ever touched by the threads that work on that file, so each buffer is
+ * locked on its own.
+ *
+ * The Client and the Server each run their own processor, so the keep decision for an uneventful file is not drawn
+ * at random but taken from a hash of the trace ID and the span ID of the Client's span for the file. Both processes
+ * know that span: on the Client it is the local root, and on the Server it is the remote parent of the SERVER span
+ * that is the local root there. So both halves of a file's trace are kept or dropped together. The hash mixes in the
+ * span ID because one connection is one trace, and files are decided one by one. Head sampling decides on the low
+ * half of the trace ID and this hash on the high half, so the two decisions are independent.
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.EventData;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class TailSamplingSpanProcessor implements SpanProcessor {
+    private static final AttributeKey<Boolean> CHECKSUM_FAILED = AttributeKey.booleanKey("pred.checksum_failed");
+
+    // Spans past this many in one tree are exported straight away instead of buffered
+    private static final int MAX_BUFFERED_SPANS = 1024;
+
+    private final SpanProcessor delegate;
+    private final double keepRatio;
+    private final long slowNanos;
+
+    // Stands in for the local root of a span that starts a trace, such spans are exported without buffering
+    private static final String TRACE_ROOT = "";
+
+    // The local root of every span that has started but not ended, by span ID
+    private final ConcurrentHashMap<String, String> localRoots = new ConcurrentHashMap<>();
+
+    // The finished spans of each tree that is still waiting for its root, by root span ID
+    private final ConcurrentHashMap<String, TreeBuffer> buffers = new ConcurrentHashMap<>();
+
+    private static class TreeBuffer {
+        List<ReadableSpan> spans = new ArrayList<>();
+        boolean interesting;
+    }
+
+    public TailSamplingSpanProcessor(SpanProcessor delegate, double keepRatio, long slowMillis) {
+        this.delegate = delegate;
+        this.keepRatio = keepRatio;
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(slowMillis);
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) {
+        SpanContext parent = span.getParentSpanContext();
+        String spanId = span.getSpanContext().getSpanId();
+
+        String root = spanId;
+        if (!parent.isValid()) {
+            root = TRACE_ROOT;
+        } else if (!parent.isRemote()) {
+            String parentRoot = localRoots.get(parent.getSpanId());
+            if (parentRoot == null) {
+                root = parent.getSpanId();
+            } else if (!parentRoot.equals(TRACE_ROOT)) {
+                root = parentRoot;
+            }
+        }
+        localRoots.put(spanId, root);
+        delegate.onStart(parentContext, span);
+    }
+
+    @Override
+    public boolean isStartRequired() {
+        return true;
+    }
+
+    @Override
+    public void onEnd(ReadableSpan span) {
+        String spanId = span.getSpanContext().getSpanId();
+        String root = localRoots.remove(spanId);
+
+        // The connection span is always kept so the file trees have something to hang on
+        if (TRACE_ROOT.equals(root)) {
+            delegate.onEnd(span);
+            return;
+        }
+        if (root == null) {
+            root = spanId;
+        }
+        boolean interesting = isInteresting(span);
+
+        if (!root.equals(spanId)) {
+            TreeBuffer buffer = buffers.computeIfAbsent(root, id -> new TreeBuffer());
+            synchronized (buffer) {
+                if (buffer.spans.size() < MAX_BUFFERED_SPANS) {
+                    buffer.spans.add(span);
+                    buffer.interesting |= interesting;
+                    return;
+                }
+            }
+            delegate.onEnd(span);
+            return;
+        }
+
+        // The local root has ended, so the whole tree can be decided
+        List<ReadableSpan> spans = new ArrayList<>();
+        TreeBuffer buffer = buffers.remove(root);
+        if (buffer != null) {
+            synchronized (buffer) {
+                spans.addAll(buffer.spans);
+                interesting |= buffer.interesting;
+            }
+        }
+        spans.add(span);
+
+        if (interesting || keep(span, keepRatio)) {
+            for (ReadableSpan finished : spans) {
+                delegate.onEnd(finished);
+            }
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    /**
+     * Returns whether the uneventful tree under the local root is kept, the same way in the Client and the Server.
+     */
+    static boolean keep(ReadableSpan root, double keepRatio) {
+        SpanContext parent = root.getParentSpanContext();
+        String fileSpanId = root.getKind() == SpanKind.SERVER && parent.isRemote()
+                ? parent.getSpanId() : root.getSpanContext().getSpanId();
+        return keep(root.getSpanContext().getTraceId(), fileSpanId, keepRatio);
+    }
+
+    /**
+     * Maps the high half of the trace ID and the span ID to a number in [0, 1) with the SplitMix64 finalizer, and
+     * keeps the tree if it is below the ratio.
+     */
+    static boolean keep(String traceId, String spanId, double keepRatio) {
+        long hash = Long.parseUnsignedLong(traceId.substring(0, 16), 16) ^ Long.parseUnsignedLong(spanId, 16);
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return (hash >>> 11) * 0x1.0p-53 < keepRatio;
+    }
+
+    private boolean isInteresting(ReadableSpan span) {
+        if (span.getLatencyNanos() > slowNanos) {
+            return true;
+        }
+        if (Boolean.TRUE.equals(span.getAttribute(CHECKSUM_FAILED))) {
+            return true;
+        }
+        if (span.toSpanData().getStatus().getStatusCode() == StatusCode.ERROR) {
+            return true;
+        }
+        for (EventData event : span.toSpanData().getEvents()) {
+            if (event.getName().equals("exception")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Exports the buffered trees whose root never ended, then shuts down the delegate.
+     */
+    @Override
+    public CompletableResultCode shutdown() {
+        for (TreeBuffer buffer : buffers.values()) {
+            synchronized (buffer) {
+                for (ReadableSpan span : buffer.spans) {
+                    delegate.onEnd(span);
+                }
+                buffer.spans.clear();
+            }
+        }
+        buffers.clear();
+        return delegate.shutdown();
+    }
+
+    @Override
+    public CompletableResultCode forceFlush() {
+        return delegate.forceFlush();
+    }
+}
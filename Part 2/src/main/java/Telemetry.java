@@ -0,0 +1,161 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This Telemetry class sets up the OpenTelemetry SDK for the Client and the Server. There is one SDK per JVM: the
+ * first program to start it names the exporters and picks the Prometheus port, and any other program in the same
+ * JVM, such as the server thread of the InstrumentationBenchmark, shares it. The backend and sampling are chosen by
+ * TelemetryBackend and TransferSampling.
+ *
+ * Spans go through a batch processor whose queue, batch size and schedule can be set with system properties:
+ *      telemetry.spanQueueSize          spans waiting to be exported before new ones are dropped (default 8192)
+ *      telemetry.spanBatchSize          spans per export (default 512)
+ *      telemetry.spanDelayMillis        time between exports (default 1000)
+ *      telemetry.exportTimeoutMillis    time an export may take (default 10000)
+ *      telemetry.metricIntervalMillis   time between metric exports (default 2000)
+ *      telemetry.shutdownTimeoutMillis  time shutdown waits for the last export (default 5000)
+ *      telemetry.exemplars              which measurements keep an exemplar: trace, all or off (default trace)
+ *
+ * Exemplars link a histogram bucket to a span that recorded a value in it, so an outlier in compression_ratio or
+ * transfer.stage.duration leads straight to its transfer. Each bucket keeps the last exemplar that fell into it. With
+ * the default trace filter only measurements taken while a sampled span is current keep one, so every exemplar
+ * points at a trace that was exported, unless the tail sampler dropped that file afterwards.
+ *
+ * The batch processor reports its own metrics, processedSpans with dropped=true for spans that found the queue full
+ * and queueSize for the spans waiting, next to telemetry_span_queue_capacity, so the fill of the queue can be
+ * watched. Shutdown flushes both spans and metrics, and also runs from a shutdown hook so a Server stopped with
+ * Ctrl-C still exports what it has.
+ *
+ * Every span also goes through the StatisticalDebuggingProcessor, which ranks the predicates of the files the
+ * Server receives as they end.
+ */
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.sdk.OpenTelemetrySdk;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.metrics.ExemplarFilter;
+import io.opentelemetry.sdk.metrics.SdkMeterProvider;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.resources.Resource;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.export.BatchSpanProcessor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class Telemetry {
+    static int SPAN_QUEUE_SIZE = Integer.getInteger("telemetry.spanQueueSize", 8192);
+    static int SPAN_BATCH_SIZE = Integer.getInteger("telemetry.spanBatchSize", 512);
+    static long SPAN_DELAY_MILLIS = Long.getLong("telemetry.spanDelayMillis", 1000L);
+    static long EXPORT_TIMEOUT_MILLIS = Long.getLong("telemetry.exportTimeoutMillis", 10000L);
+    static long METRIC_INTERVAL_MILLIS = Long.getLong("telemetry.metricIntervalMillis", 2000L);
+    static long SHUTDOWN_TIMEOUT_MILLIS = Long.getLong("telemetry.shutdownTimeoutMillis", 5000L);
+    static String EXEMPLARS = System.getProperty("telemetry.exemplars", "trace");
+
+    static Resource app = Resource.getDefault().toBuilder().put("service.name", "COSC3P95-Part2").build();
+
+    private static Telemetry instance;
+
+    private final OpenTelemetrySdk sdk;
+    private final OpenTelemetry openTelemetry;
+    private final AtomicBoolean shutDown = new AtomicBoolean();
+
+    /**
+     * Returns the SDK of this JVM, starting it for the given program if it is not running yet. The port is used by
+     * the prometheus backend when telemetry.prometheusPort is not set.
+     */
+    public static synchronized Telemetry start(String program, int prometheusPort) {
+        if (instance == null) {
+            instance = new Telemetry(program, prometheusPort);
+            Runtime.getRuntime().addShutdownHook(new Thread(Telemetry::shutdown, "telemetry-shutdown"));
+        }
+        return instance;
+    }
+
+    private Telemetry(String program, int prometheusPort) {
+        SdkMeterProviderBuilder meterProviderBuilder = SdkMeterProvider.builder()
+                .setResource(app)
+                .setExemplarFilter(exemplarFilter());
+        SdkMeterProvider meterProvider = TelemetryBackend.registerMetricReader(
+                meterProviderBuilder, program, prometheusPort)
+                .build();
+
+        BatchSpanProcessor batch = BatchSpanProcessor.builder(TelemetryBackend.spanExporter(program))
+                .setMaxQueueSize(SPAN_QUEUE_SIZE)
+                .setMaxExportBatchSize(Math.min(SPAN_BATCH_SIZE, SPAN_QUEUE_SIZE))
+                .setScheduleDelay(SPAN_DELAY_MILLIS, TimeUnit.MILLISECONDS)
+                .setExporterTimeout(EXPORT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                .setMeterProvider(meterProvider)
+                .build();
+        SdkTracerProvider tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new StatisticalDebuggingProcessor(meterProvider.get("COSC3P95.StatisticalDebugging")))
+                .addSpanProcessor(TransferSampling.spanProcessor(batch))
+                .setResource(app)
+                .setSampler(TransferSampling.sampler())
+                .build();
+
+        sdk = OpenTelemetrySdk.builder()
+                .setTracerProvider(tracerProvider)
+                .setMeterProvider(meterProvider)
+                .build();
+        openTelemetry = TelemetryBackend.select(sdk);
+
+        meterProvider.get("COSC3P95.Telemetry")
+                .gaugeBuilder("telemetry_span_queue_capacity")
+                .setDescription("Spans the batch processor can hold before it drops new ones")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(SPAN_QUEUE_SIZE));
+    }
+
+    private static ExemplarFilter exemplarFilter() {
+        switch (EXEMPLARS) {
+            case "all":
+                return ExemplarFilter.alwaysOn();
+            case "off":
+                return ExemplarFilter.alwaysOff();
+            default:
+                return ExemplarFilter.traceBased();
+        }
+    }
+
+    public Tracer tracer(String name) {
+        return openTelemetry.getTracer(name);
+    }
+
+    public Meter meter(String name) {
+        return openTelemetry.getMeter(name);
+    }
+
+    /**
+     * Exports the spans that have ended so far, without waiting for the export to finish.
+     */
+    public void flushSpans() {
+        sdk.getSdkTracerProvider().forceFlush();
+    }
+
+    /**
+     * Exports everything that is left and stops the SDK, waiting at most telemetry.shutdownTimeoutMillis. Does
+     * nothing if the SDK was never started or is already shut down.
+     */
+    public static void shutdown() {
+        Telemetry telemetry;
+        synchronized (Telemetry.class) {
+            telemetry = instance;
+        }
+        if (telemetry == null || !telemetry.shutDown.compareAndSet(false, true)) {
+            return;
+        }
+
+        CompletableResultCode result = telemetry.sdk.shutdown().join(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        if (!result.isDone()) {
+            System.out.println("Telemetry export did not finish within " + SHUTDOWN_TIMEOUT_MILLIS + " ms");
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TelemetryBackend class decides where the Client and the FolderTransferRequest send their spans and metrics.
+ * The backend is chosen with the telemetry.backend system property:
+ *
+ *      otlp        send both to the collector over OTLP gRPC, as observability/docker-compose.yaml expects
+ *      file        write both to rotating OTLP files in telemetry.fileDir, see OtlpFileExporter
+ *      prometheus  write spans to files and serve metrics at http://localhost:<port>/metrics, see PrometheusEndpoint
+ *      none        drop everything
+ *      auto        use otlp if the collector accepts a connection at startup, and file otherwise (default)
+ *
+ * Setting telemetry.enabled to false turns instrumentation off altogether: every tracer and meter is a no-op, so
+ * spans, attributes and measurements cost next to nothing, and the backend is none.
+ *
+ * The other settings are telemetry.otlpEndpoint (default http://localhost:4317), telemetry.fileDir (default
+ * telemetry), telemetry.fileMaxBytes (default 16 MB), telemetry.fileMaxFiles (default 8) and telemetry.prometheusPort.
+ */
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.exporter.otlp.metrics.OtlpGrpcMetricExporter;
+import io.opentelemetry.exporter.otlp.trace.OtlpGrpcSpanExporter;
+import io.opentelemetry.sdk.metrics.SdkMeterProviderBuilder;
+import io.opentelemetry.sdk.metrics.export.MetricExporter;
+import io.opentelemetry.sdk.metrics.export.PeriodicMetricReader;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.time.Duration;
+
+public class TelemetryBackend {
+    static String OTLP_ENDPOINT = System.getProperty("telemetry.otlpEndpoint", "http://localhost:4317");
+    static String FILE_DIR = System.getProperty("telemetry.fileDir", "telemetry");
+    static long FILE_MAX_BYTES = Long.getLong("telemetry.fileMaxBytes", 16L * 1024L * 1024L);
+    static int FILE_MAX_FILES = Integer.getInteger("telemetry.fileMaxFiles", 8);
+
+    // How long the auto backend waits for the collector to accept a connection
+    static int PROBE_TIMEOUT_MILLIS = 250;
+
+    static final boolean ENABLED = !System.getProperty("telemetry.enabled", "true").equals("false");
+
+    static final String BACKEND = ENABLED ? resolve(System.getProperty("telemetry.backend", "auto")) : "none";
+
+    /**
+     * Returns the SDK to take tracers and meters from, or the no-op implementation if instrumentation is off.
+     */
+    public static OpenTelemetry select(OpenTelemetry sdk) {
+        return ENABLED ? sdk : OpenTelemetry.noop();
+    }
+
+    private static String resolve(String backend) {
+        if (!backend.equals("auto")) {
+            return backend;
+        }
+        URI endpoint = URI.create(OTLP_ENDPOINT);
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), PROBE_TIMEOUT_MILLIS);
+            return "otlp";
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("No collector at " + OTLP_ENDPOINT + ", writing telemetry to " + FILE_DIR);
+            return "file";
+        }
+    }
+
+    /**
+     * Returns the exporter for the spans of the given program, which names the span files.
+     */
+    public static SpanExporter spanExporter(String program) {
+        switch (BACKEND) {
+            case "otlp":
+                return OtlpGrpcSpanExporter.builder()
+                        .setEndpoint(OTLP_ENDPOINT)
+                        .build();
+            case "file":
+            case "prometheus":
+                return new OtlpFileExporter(new File(FILE_DIR), program + "-traces",
+                        FILE_MAX_BYTES, FILE_MAX_FILES).spanExporter();
+            default:
+                return SpanExporter.composite();
+        }
+    }
+
+    /**
+     * Registers the reader for the metrics of the given program on the builder, if the backend keeps metrics. The
+     * port is used by the prometheus backend when telemetry.prometheusPort is not set.
+     */
+    public static SdkMeterProviderBuilder registerMetricReader(SdkMeterProviderBuilder builder, String program,
+                                                               int defaultPort) {
+        MetricExporter exporter;
+        switch (BACKEND) {
+            case "otlp":
+                exporter = OtlpGrpcMetricExporter.builder()
+                        .setEndpoint(OTLP_ENDPOINT)
+                        .build();
+                break;
+            case "file":
+                exporter = new OtlpFileExporter(new File(FILE_DIR), program + "-metrics",
+                        FILE_MAX_BYTES, FILE_MAX_FILES).metricExporter();
+                break;
+            case "prometheus":
+                try {
+                    return builder.registerMetricReader(
+                            new PrometheusEndpoint(Integer.getInteger("telemetry.prometheusPort", defaultPort)));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return builder;
+                }
+            default:
+                return builder;
+        }
+        return builder.registerMetricReader(PeriodicMetricReader.builder(exporter)
+                .setInterval(Duration.ofMillis(Telemetry.METRIC_INTERVAL_MILLIS))
+                .build());
+    }
+}
@@ -0,0 +1,321 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This ThresholdSearch class finds, for every variable logged with the records (see PredicateRegistry), the
+ * threshold that best separates the failing runs from the successful ones. Instead of guessing thresholds such as
+ * "compression ratio above 2.087" and narrowing them down over several runs, every value that was logged is a
+ * candidate, so the best split is found from one set of logs.
+ *
+ * The values of each variable are sorted once and merged into a list of distinct values, with the number of failing
+ * and successful records that had each. A sweep over that list then counts both predicates "x > v" and "x <= v" for
+ * every candidate v from prefix sums, so the whole search takes O(n log n) for n values. Context is the same for
+ * every threshold of a variable, the share of failures among the records with a value, so the threshold with the
+ * highest Increase would often be one that holds for a single failing record. Thresholds are ranked by the
+ * Importance of the Cooperative Bug Isolation work instead, the harmonic mean of Increase and of how many of the
+ * failures the predicate covers (log of its failing records over log of all failing records), ties going to the
+ * higher Increase. The best threshold in each direction is written to thresholds.csv for every variable, if its
+ * Increase is above 0.
+ *
+ * The analyzer keeps the values of every run counted so far as distinct values with their counts. Integer-like
+ * variables such as a file number have few distinct values, but timings and ratios are continuous, so nearly every
+ * record would add one. Once a variable has more than analyzer.maxDistinctValues (default 4096) distinct values, its
+ * values are merged into buckets 1% wide on a log scale, each kept as the largest value that fell into it, and every
+ * later value goes into its bucket. Each candidate threshold is then still a logged value and its counts are exact,
+ * but a split can only fall between buckets, within 1% of the best exact one. The buckets grow with the range of the
+ * values, about 230 per power of ten (magnitudes below 1e-9 share one), rather than with the number of runs: a
+ * variable of timings from a microsecond to an hour takes about 2,300 buckets, or 55 KB, and even values spread over
+ * every double take at most about 150,000, or 3.5 MB. Together with at most COMPACT_AT values waiting to be sorted
+ * in, that bounds the heap and snapshot space of a variable whatever the number of records. The buckets are merged
+ * the same way however the values are split across threads and snapshots, so an incremental run gives the same
+ * thresholds as a full one.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ThresholdSearch {
+    static int MAX_DISTINCT = Integer.getInteger("analyzer.maxDistinctValues", 4096);
+
+    // Values are sorted into the distinct values once this many are waiting
+    static final int COMPACT_AT = 1 << 14;
+
+    // Each bucket is this much wider than the one below it, and magnitudes below the smallest share the bucket of 0
+    static final double BUCKET_GROWTH = 1.01;
+    static final double SMALLEST_MAGNITUDE = 1e-9;
+    private static final double LOG_GROWTH = Math.log(BUCKET_GROWTH);
+
+    /**
+     * The values of one variable, as the distinct values in ascending order with the number of failing and successful
+     * records that had each, plus the values added since they were last sorted in. Once bucketed, each entry is a
+     * bucket, with the largest value that fell into it.
+     */
+    static class Samples {
+        double[] values = new double[0];
+        long[] fails = new long[0];
+        long[] successes = new long[0];
+        int distinct = 0;
+        boolean bucketed = false;
+
+        private double[] failing = new double[16];
+        private int failingCount = 0;
+        private double[] succeeding = new double[16];
+        private int succeedingCount = 0;
+
+        void add(double value, boolean failed) {
+            if (Double.isNaN(value)) return;
+            if (failed) {
+                if (failingCount == failing.length) failing = Arrays.copyOf(failing, failingCount * 2);
+                failing[failingCount++] = value;
+            } else {
+                if (succeedingCount == succeeding.length) succeeding = Arrays.copyOf(succeeding, succeedingCount * 2);
+                succeeding[succeedingCount++] = value;
+            }
+            if (failingCount + succeedingCount >= COMPACT_AT) compact();
+        }
+
+        /**
+         * Adds the distinct value with its counts, which must not be below the last one added. If bucketed, a value in
+         * the bucket of the last one is counted with it.
+         */
+        void addDistinct(double value, long fail, long success) {
+            if (distinct > 0 && (values[distinct - 1] == value
+                    || bucketed && bucket(values[distinct - 1]) == bucket(value))) {
+                values[distinct - 1] = value;
+                fails[distinct - 1] += fail;
+                successes[distinct - 1] += success;
+                return;
+            }
+            if (distinct == values.length) {
+                int length = Math.max(16, distinct * 2);
+                values = Arrays.copyOf(values, length);
+                fails = Arrays.copyOf(fails, length);
+                successes = Arrays.copyOf(successes, length);
+            }
+            values[distinct] = value;
+            fails[distinct] = fail;
+            successes[distinct] = success;
+            distinct++;
+        }
+
+        /**
+         * Sorts the values added since the last call and merges them into the distinct values.
+         */
+        void compact() {
+            if (failingCount + succeedingCount == 0) return;
+            Arrays.sort(failing, 0, failingCount);
+            Arrays.sort(succeeding, 0, succeedingCount);
+
+            Samples merged = new Samples();
+            merged.bucketed = bucketed;
+            int d = 0, f = 0, s = 0;
+            while (d < distinct || f < failingCount || s < succeedingCount) {
+                double value = Math.min(d < distinct ? values[d] : Double.POSITIVE_INFINITY,
+                        Math.min(f < failingCount ? failing[f] : Double.POSITIVE_INFINITY,
+                                s < succeedingCount ? succeeding[s] : Double.POSITIVE_INFINITY));
+                if (d < distinct && values[d] == value) {
+                    merged.addDistinct(value, fails[d], successes[d]);
+                    d++;
+                } else if (f < failingCount && failing[f] == value) {
+                    merged.addDistinct(value, 1, 0);
+                    f++;
+                } else {
+                    merged.addDistinct(value, 0, 1);
+                    s++;
+                }
+            }
+
+            values = merged.values;
+            fails = merged.fails;
+            successes = merged.successes;
+            distinct = merged.distinct;
+            failingCount = 0;
+            succeedingCount = 0;
+            limit();
+        }
+
+        /**
+         * Merges the distinct values into buckets if there are more than MAX_DISTINCT of them.
+         */
+        private void limit() {
+            if (bucketed || distinct <= MAX_DISTINCT) return;
+            Samples merged = new Samples();
+            merged.bucketed = true;
+            for (int i = 0; i < distinct; i++) {
+                merged.addDistinct(values[i], fails[i], successes[i]);
+            }
+            values = merged.values;
+            fails = merged.fails;
+            successes = merged.successes;
+            distinct = merged.distinct;
+            bucketed = true;
+        }
+
+        /**
+         * Adds the values of other to into, creating into if it is null, and returns it.
+         */
+        static Samples merge(Samples into, Samples other) {
+            if (into == null) into = new Samples();
+            if (other == null) return into;
+            into.compact();
+            other.compact();
+
+            Samples merged = new Samples();
+            merged.bucketed = into.bucketed || other.bucketed;
+            int a = 0, b = 0;
+            while (a < into.distinct || b < other.distinct) {
+                if (b == other.distinct || a < into.distinct && into.values[a] <= other.values[b]) {
+                    merged.addDistinct(into.values[a], into.fails[a], into.successes[a]);
+                    a++;
+                } else {
+                    merged.addDistinct(other.values[b], other.fails[b], other.successes[b]);
+                    b++;
+                }
+            }
+
+            into.values = merged.values;
+            into.fails = merged.fails;
+            into.successes = merged.successes;
+            into.distinct = merged.distinct;
+            into.bucketed = merged.bucketed;
+            into.limit();
+            return into;
+        }
+    }
+
+    /**
+     * Returns the bucket of the value. Buckets are numbered in the order of their values: 0 holds the magnitudes
+     * below SMALLEST_MAGNITUDE, and each step away from it holds values BUCKET_GROWTH times further from 0.
+     */
+    static long bucket(double value) {
+        double magnitude = Math.abs(value);
+        if (magnitude < SMALLEST_MAGNITUDE) return 0;
+        long step = 1 + (long) Math.floor(Math.log(magnitude / SMALLEST_MAGNITUDE) / LOG_GROWTH);
+        return value > 0 ? step : -step;
+    }
+
+    /**
+     * A threshold predicate with its counts and metrics.
+     */
+    static class Threshold {
+        PredicateAnalyzer.Result result;
+        double importance;
+    }
+
+    /**
+     * Returns the best threshold in each direction for every variable with values in both failing and successful
+     * records, in order of variable name, leaving out those that do not increase the chance of failure.
+     */
+    static List<Threshold> search(PredicateAnalyzer.Counts counts) {
+        Map<String, Samples> byName = new TreeMap<>();
+        for (int variable = 0; variable < counts.samples.size(); variable++) {
+            if (counts.samples.get(variable) != null) {
+                byName.put(PredicateAnalyzer.variableName(variable), counts.samples.get(variable));
+            }
+        }
+
+        List<Threshold> thresholds = new ArrayList<>();
+        for (Map.Entry<String, Samples> entry : byName.entrySet()) {
+            String name = entry.getKey();
+            Samples samples = entry.getValue();
+            samples.compact();
+            Threshold above = null, below = null;
+
+            long totalFail = 0, totalSuccess = 0;
+            for (int i = 0; i < samples.distinct; i++) {
+                totalFail += samples.fails[i];
+                totalSuccess += samples.successes[i];
+            }
+            if (totalFail == 0 || totalSuccess == 0) continue;
+
+            // Splitting after the last value would give a predicate that is never true, or always true
+            long failBelow = 0, successBelow = 0;
+            for (int i = 0; i < samples.distinct - 1; i++) {
+                failBelow += samples.fails[i];
+                successBelow += samples.successes[i];
+                String value = Double.toString(samples.values[i]);
+                above = better(above, threshold(name + " > " + value, totalFail - failBelow,
+                        totalSuccess - successBelow, totalFail, totalSuccess));
+                below = better(below, threshold(name + " <= " + value, failBelow, successBelow,
+                        totalFail, totalSuccess));
+            }
+            if (above != null && above.result.increase > 0) thresholds.add(above);
+            if (below != null && below.result.increase > 0) thresholds.add(below);
+        }
+        return thresholds;
+    }
+
+    private static Threshold threshold(String predicate, long trueFail, long trueSuccess,
+                                       long totalFail, long totalSuccess) {
+        Threshold threshold = new Threshold();
+        long trueCount = trueFail + trueSuccess;
+        threshold.result = PredicateAnalyzer.computeMetrics(predicate, trueCount,
+                totalFail + totalSuccess - trueCount, trueFail, totalFail, totalSuccess);
+        threshold.importance = importance(threshold.result.increase, trueFail, totalFail);
+        return threshold;
+    }
+
+    /**
+     * The harmonic mean of Increase and of log(trueFail) / log(totalFail), or 0 if either is not positive.
+     */
+    static double importance(double increase, long trueFail, long totalFail) {
+        if (increase <= 0 || trueFail <= 1) return 0;
+        double coverage = totalFail > 1 ? Math.log(trueFail) / Math.log(totalFail) : 1;
+        return 2 / (1 / increase + 1 / coverage);
+    }
+
+    private static Threshold better(Threshold best, Threshold candidate) {
+        if (best == null || candidate.importance > best.importance
+                || candidate.importance == best.importance && candidate.result.increase > best.result.increase) {
+            return candidate;
+        }
+        return best;
+    }
+
+    /**
+     * Writes the counts, metrics and Importance of each threshold to a CSV file.
+     */
+    static void write(String filename, List<Threshold> thresholds) throws Exception {
+        List<String[]> csvRows = new ArrayList<>();
+        csvRows.add(new String[]{
+                "Predicate",
+                "trueCount",
+                "falseCount",
+                "P_true_fail",
+                "P_true_total",
+                "P_observed_fail",
+                "P_observed_success",
+                "failure",
+                "context",
+                "increase",
+                "importance"
+        });
+
+        for (Threshold threshold : thresholds) {
+            PredicateAnalyzer.Result res = threshold.result;
+            csvRows.add(new String[]{
+                    res.predicate,
+                    String.valueOf(res.trueCount),
+                    String.valueOf(res.falseCount),
+                    String.valueOf(res.P_true_fail),
+                    String.valueOf(res.P_true_total),
+                    String.valueOf(res.P_observed_fail),
+                    String.valueOf(res.P_observed_success),
+                    String.format("%.4f", res.failure),
+                    String.format("%.4f", res.context),
+                    String.format("%.4f", res.increase),
+                    String.format("%.4f", threshold.importance)
+            });
+        }
+
+        PredicateAnalyzer.writeCSV(filename, csvRows);
+    }
+}
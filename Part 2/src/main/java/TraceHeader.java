@@ -0,0 +1,68 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TraceHeader class converts a trace context to and from a W3C traceparent header, which is how the Client and
+ * the FolderTransferRequest pass trace context over the socket. The header has the form
+ *
+ *      00-<32 hex digit trace ID>-<16 hex digit span ID>-<2 hex digit flags>
+ *
+ * so the sampling decision of the sender travels with the IDs. The header is written and parsed by the W3C trace
+ * context propagator of OpenTelemetry, with the single header as its carrier; a tracestate is not sent.
+ */
+
+import io.opentelemetry.api.trace.propagation.W3CTraceContextPropagator;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapPropagator;
+import io.opentelemetry.context.propagation.TextMapSetter;
+
+import java.util.Collections;
+
+public class TraceHeader {
+    private static final String TRACEPARENT = "traceparent";
+
+    private static final TextMapPropagator propagator = W3CTraceContextPropagator.getInstance();
+
+    // The carrier of the setter is a one element array that receives the traceparent
+    private static final TextMapSetter<String[]> setter = (carrier, key, value) -> {
+        if (carrier != null && key.equals(TRACEPARENT)) {
+            carrier[0] = value;
+        }
+    };
+
+    // The carrier of the getter is the traceparent itself
+    private static final TextMapGetter<String> getter = new TextMapGetter<String>() {
+        @Override
+        public Iterable<String> keys(String carrier) {
+            return Collections.singletonList(TRACEPARENT);
+        }
+
+        @Override
+        public String get(String carrier, String key) {
+            return key.equals(TRACEPARENT) ? carrier : null;
+        }
+    };
+
+    /**
+     * Returns the traceparent header of the span in the given context, or an empty string if there is no valid span.
+     */
+    public static String encode(Context context) {
+        String[] header = {""};
+        propagator.inject(context, header, setter);
+        return header[0];
+    }
+
+    /**
+     * Returns a context whose parent is the remote span described by the header. A missing or malformed header gives
+     * the root context, so the receiver starts a new trace instead of failing the transfer.
+     */
+    public static Context decode(String header) {
+        return propagator.extract(Context.root(), header, getter);
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TransferEvents class holds the Java Flight Recorder events for the stages of a transfer, so the stages show
+ * up next to GC, I/O and thread events when a Client or Server is profiled. Each event covers one stage of one file:
+ * it begins when the stage starts on that file and is committed once the stage is done with it.
+ *
+ * The duration of an event is the wall time of the stage, which for the client includes waiting on the read-ahead
+ * queue, so every event also carries the active time, the time actually spent working. The connection ID is the
+ * client's address and port as seen by both sides, so the events of the two programs can be matched.
+ *
+ * While the events are disabled, which they are unless a recording asks for them, begin() and record() return
+ * almost immediately. The bundled transfer.jfc enables all of them; setting the transfer.jfr system property to a
+ * file name makes the Client or Server record with it and write the file on exit. JfrStageReport summarizes the file.
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.text.ParseException;
+
+public class TransferEvents {
+    static final String PREFIX = "cosc3p95.";
+
+    /**
+     * Starts a recording with the bundled transfer.jfc if the transfer.jfr system property names a file to write.
+     */
+    public static void startRecordingIfRequested() {
+        String destination = System.getProperty("transfer.jfr");
+        if (destination == null) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(
+                TransferEvents.class.getResourceAsStream("/transfer.jfc"), StandardCharsets.UTF_8)) {
+            Recording recording = new Recording(Configuration.create(reader));
+            recording.setName("transfer");
+            recording.setDestination(Paths.get(destination));
+            recording.setDumpOnExit(true);
+            recording.start();
+        } catch (IOException | ParseException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Category({"COSC 3P95", "Transfer"})
+    @StackTrace(false)
+    public abstract static class StageEvent extends Event {
+        @Label("Connection")
+        @Description("Address and port of the client")
+        String connectionId;
+
+        @Label("Codec")
+        String codec;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Active Time")
+        @Description("Time spent working in the stage, not counting waits")
+        @Timespan
+        long activeTime;
+
+        /**
+         * Sets the fields and commits the event, if a recording wants it.
+         */
+        public void record(String connectionId, int codec, long bytes, long activeNanos) {
+            if (shouldCommit()) {
+                this.connectionId = connectionId;
+                this.codec = codec == StageMetrics.CODEC_DEFLATE ? "deflate" : "none";
+                this.bytes = bytes;
+                this.activeTime = activeNanos;
+                commit();
+            }
+        }
+    }
+
+    @Name(PREFIX + "Read")
+    @Label("Read File")
+    public static class Read extends StageEvent {
+    }
+
+    @Name(PREFIX + "Compress")
+    @Label("Compress")
+    public static class Compress extends StageEvent {
+    }
+
+    @Name(PREFIX + "Encrypt")
+    @Label("Encrypt")
+    public static class Encrypt extends StageEvent {
+    }
+
+    @Name(PREFIX + "Send")
+    @Label("Send")
+    public static class Send extends StageEvent {
+    }
+
+    @Name(PREFIX + "Receive")
+    @Label("Receive")
+    public static class Receive extends StageEvent {
+    }
+
+    @Name(PREFIX + "Decrypt")
+    @Label("Decrypt")
+    public static class Decrypt extends StageEvent {
+    }
+
+    @Name(PREFIX + "Inflate")
+    @Label("Inflate")
+    public static class Inflate extends StageEvent {
+    }
+
+    @Name(PREFIX + "Write")
+    @Label("Write File")
+    public static class Write extends StageEvent {
+    }
+
+    @Name(PREFIX + "Verify")
+    @Label("Verify Checksum")
+    public static class Verify extends StageEvent {
+        @Label("Files")
+        int files;
+
+        @Label("Failures")
+        int failures;
+    }
+
+    /**
+     * Starts an event of the given type. Returns it so that it can be created and begun on one line.
+     */
+    static <T extends StageEvent> T begin(T event) {
+        event.begin();
+        return event;
+    }
+}
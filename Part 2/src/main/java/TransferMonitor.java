@@ -0,0 +1,326 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TransferMonitor class follows every active connection of the Server, file by file, and flags the ones that
+ * are too slow. The service level objective (SLO) depends on the size of the file:
+ *
+ *      small files (under 64 KB)   must complete within server.sloSmallFileMillis (default 1000 ms)
+ *      larger files                must arrive at server.sloMinMBps or faster (default 1 MB/s of original data)
+ *
+ * and a file that receives no data at all for server.stallMillis (default 5000 ms) is flagged while it is still in
+ * progress. Each violation is added as an slo.violation event to the span of the file, counted in the
+ * transfer_slo_violations_total metric and printed.
+ *
+ * A background check measures the rate of each connection once a second, keeping the lowest and highest rates seen
+ * as watermarks. These rates count the bytes on the socket, which for a compressed transfer is less than the data
+ * written, while the SLO is measured against the original size of the file. The table of active transfers is available from table() and over JMX, see TransferMonitorMBean.
+ *
+ * The file a connection is working on is published as one FileState object through a volatile field, and replaced
+ * rather than changed when the next file starts. The background check reads that field once and judges the file
+ * from the copy it read, so a stall is never blamed on the next file. A violation is only added to a file's span
+ * while the file has not ended, checked under the lock of its FileState, so no event lands on a span that has ended.
+ */
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.metrics.LongCounter;
+import io.opentelemetry.api.metrics.Meter;
+import io.opentelemetry.api.trace.Span;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TransferMonitor implements TransferMonitorMBean {
+    static long SMALL_FILE_BYTES = 64L * 1024L;
+    static long CHECK_INTERVAL_MILLIS = Long.getLong("server.monitorIntervalMillis", 1000L);
+    static long STALL_MILLIS = Long.getLong("server.stallMillis", 5000L);
+
+    private static final double MEGABYTE = 1024.0 * 1024.0;
+
+    private static final AttributeKey<String> KIND = AttributeKey.stringKey("slo.kind");
+    private static final AttributeKey<String> FILE = AttributeKey.stringKey("File.name");
+    private static final AttributeKey<Double> RATE = AttributeKey.doubleKey("rate.mb_per_s");
+    private static final AttributeKey<Long> ELAPSED = AttributeKey.longKey("elapsed.ms");
+
+    // Violation kinds, with their metric attributes built once
+    static final int TOO_LONG = 0;
+    static final int TOO_SLOW = 1;
+    static final int STALLED = 2;
+    private static final String[] KINDS = {"time_to_complete", "throughput", "stalled"};
+    private final Attributes[] kindAttributes = new Attributes[KINDS.length];
+
+    private volatile double sloMinBytesPerSecond =
+            Double.parseDouble(System.getProperty("server.sloMinMBps", "1.0")) * MEGABYTE;
+    private volatile long sloSmallFileNanos =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("server.sloSmallFileMillis", 1000L));
+
+    private final Set<Progress> active = ConcurrentHashMap.newKeySet();
+    private final LongAdder violations = new LongAdder();
+    private final LongCounter violationCounter;
+
+    /**
+     * The file a connection is receiving. Only the connection's thread counts its bytes and ends it, and only the
+     * background check sets its stall flag.
+     */
+    static final class FileState {
+        final String name;
+        final long size;
+        final Span span;
+        final long startNanos = System.nanoTime();
+        volatile long bytes;
+        final AtomicBoolean stallFlagged = new AtomicBoolean();
+
+        // Guarded by this FileState
+        private boolean ended;
+
+        FileState(String name, long size, Span span) {
+            this.name = name;
+            this.size = size;
+            this.span = span;
+        }
+    }
+
+    /**
+     * The progress of one connection. Only the connection's own thread writes the current file and byte counts, the
+     * background check and JMX only read them. Both threads record violations, so their count is atomic.
+     */
+    public static class Progress {
+        final String connectionId;
+        final String folder;
+        final long startNanos = System.nanoTime();
+
+        // The file being received, or null between files
+        volatile FileState file;
+        volatile long totalBytes;
+        volatile int files;
+        final AtomicLong violations = new AtomicLong();
+
+        // Written by the background check only
+        volatile double currentRate;
+        volatile double lowRate = Double.NaN;
+        volatile double highRate;
+        long lastBytes;
+        long lastProgressNanos = System.nanoTime();
+
+        Progress(String connectionId, String folder) {
+            this.connectionId = connectionId;
+            this.folder = folder;
+        }
+
+        /**
+         * Counts bytes received on the socket for the current file.
+         */
+        public void add(long bytes) {
+            FileState current = file;
+            if (current != null) {
+                current.bytes += bytes;
+            }
+            totalBytes += bytes;
+        }
+    }
+
+    public TransferMonitor(Meter meter) {
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            kindAttributes[kind] = Attributes.of(KIND, KINDS[kind]);
+        }
+        violationCounter = meter.counterBuilder("transfer_slo_violations_total")
+                .setDescription("Files that missed the transfer SLO")
+                .build();
+        meter.gaugeBuilder("transfer_active_connections")
+                .setDescription("Connections currently transferring")
+                .ofLongs()
+                .buildWithCallback(measurement -> measurement.record(active.size()));
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("COSC3P95:type=TransferMonitor"));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleAtFixedRate(this::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public Progress start(String connectionId, String folder) {
+        Progress progress = new Progress(connectionId, folder);
+        active.add(progress);
+        return progress;
+    }
+
+    public void finish(Progress progress) {
+        active.remove(progress);
+    }
+
+    public void startFile(Progress progress, String name, long size, Span span) {
+        progress.file = new FileState(name, size, span);
+    }
+
+    /**
+     * Checks the file that just completed against the SLO for its size, then clears it.
+     */
+    public void endFile(Progress progress) {
+        FileState file = progress.file;
+        if (file == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - file.startNanos;
+        double rate = file.size / (elapsed / 1e9);
+        progress.files++;
+
+        if (file.size < SMALL_FILE_BYTES) {
+            if (elapsed > sloSmallFileNanos) {
+                violation(progress, file, TOO_LONG, rate, elapsed);
+            }
+        } else if (rate < sloMinBytesPerSecond) {
+            violation(progress, file, TOO_SLOW, rate, elapsed);
+        }
+        clearFile(progress);
+    }
+
+    /**
+     * Ends the current file without checking it, for a file that failed. Must be called before the span of the file
+     * ends, so the background check adds nothing to it afterwards.
+     */
+    public void clearFile(Progress progress) {
+        FileState file = progress.file;
+        if (file == null) {
+            return;
+        }
+        synchronized (file) {
+            file.ended = true;
+        }
+        progress.file = null;
+    }
+
+    private void violation(Progress progress, FileState file, int kind, double bytesPerSecond, long elapsedNanos) {
+        synchronized (file) {
+            if (file.ended) {
+                return;
+            }
+            file.span.addEvent("slo.violation", Attributes.of(
+                    KIND, KINDS[kind],
+                    FILE, file.name,
+                    RATE, bytesPerSecond / MEGABYTE,
+                    ELAPSED, TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+        }
+        progress.violations.incrementAndGet();
+        violations.increment();
+        violationCounter.add(1, kindAttributes[kind]);
+        System.out.println(String.format("SLO violation (%s) from %s: %s, %.2f MB/s after %d ms",
+                KINDS[kind], progress.connectionId, file.name, bytesPerSecond / MEGABYTE,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos)));
+    }
+
+    /**
+     * Runs on the background thread: updates the rate and watermarks of each connection, and flags a file that has
+     * stopped receiving data.
+     */
+    private void check() {
+        long now = System.nanoTime();
+        double interval = CHECK_INTERVAL_MILLIS / 1000.0;
+
+        for (Progress progress : active) {
+            long bytes = progress.totalBytes;
+            double rate = (bytes - progress.lastBytes) / interval;
+            progress.lastBytes = bytes;
+            progress.currentRate = rate;
+
+            FileState file = progress.file;
+            if (file == null) {
+                // Between files, or waiting for the client to start, which says nothing about the link
+                progress.lastProgressNanos = now;
+                continue;
+            }
+
+            progress.lowRate = Double.isNaN(progress.lowRate) ? rate : Math.min(progress.lowRate, rate);
+            progress.highRate = Math.max(progress.highRate, rate);
+
+            if (rate > 0) {
+                progress.lastProgressNanos = now;
+            } else if (now - progress.lastProgressNanos > TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS)
+                    && file.stallFlagged.compareAndSet(false, true)) {
+                violation(progress, file, STALLED, 0, now - file.startNanos);
+            }
+        }
+    }
+
+    /**
+     * Returns the table of active transfers, one line per connection.
+     */
+    public List<String> table() {
+        List<String> rows = new ArrayList<>();
+        long now = System.nanoTime();
+        for (Progress progress : active) {
+            FileState file = progress.file;
+            double seconds = (now - progress.startNanos) / 1e9;
+            rows.add(String.format("%s %s file=%s size=%.2f MB received=%.2f MB files=%d rate=%.2f MB/s avg=%.2f MB/s"
+                            + " low=%.2f MB/s high=%.2f MB/s violations=%d",
+                    progress.connectionId, progress.folder,
+                    file == null ? "-" : file.name,
+                    file == null ? 0.0 : file.size / MEGABYTE, file == null ? 0.0 : file.bytes / MEGABYTE,
+                    progress.files,
+                    progress.currentRate / MEGABYTE,
+                    seconds > 0 ? progress.totalBytes / MEGABYTE / seconds : 0.0,
+                    Double.isNaN(progress.lowRate) ? 0.0 : progress.lowRate / MEGABYTE,
+                    progress.highRate / MEGABYTE,
+                    progress.violations.get()));
+        }
+        return rows;
+    }
+
+    @Override
+    public String[] getActiveTransfers() {
+        return table().toArray(new String[0]);
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.size();
+    }
+
+    @Override
+    public long getSloViolations() {
+        return violations.sum();
+    }
+
+    @Override
+    public double getSloMinMegabytesPerSecond() {
+        return sloMinBytesPerSecond / MEGABYTE;
+    }
+
+    @Override
+    public void setSloMinMegabytesPerSecond(double megabytesPerSecond) {
+        sloMinBytesPerSecond = megabytesPerSecond * MEGABYTE;
+    }
+
+    @Override
+    public long getSloSmallFileMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(sloSmallFileNanos);
+    }
+
+    @Override
+    public void setSloSmallFileMillis(long millis) {
+        sloSmallFileNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
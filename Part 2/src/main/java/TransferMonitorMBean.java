@@ -0,0 +1,32 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TransferMonitorMBean interface is what the TransferMonitor shows over JMX, for example in JConsole or
+ * VisualVM under COSC3P95:type=TransferMonitor.
+ */
+
+public interface TransferMonitorMBean {
+    /**
+     * Returns one line per active connection: client, folder, current file, progress, current and average rates,
+     * the low and high watermarks of the rate, and the SLO violations so far.
+     */
+    String[] getActiveTransfers();
+
+    int getActiveCount();
+
+    long getSloViolations();
+
+    double getSloMinMegabytesPerSecond();
+
+    void setSloMinMegabytesPerSecond(double megabytesPerSecond);
+
+    long getSloSmallFileMillis();
+
+    void setSloSmallFileMillis(long millis);
+}
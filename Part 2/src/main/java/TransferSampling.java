@@ -0,0 +1,89 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TransferSampling class holds the sampling settings that Telemetry uses for the Client and the Server.
+ *
+ * Head sampling decides when a trace starts whether it is recorded at all. It is parent based, so the server follows
+ * the decision the client sent in the traceparent header and a file is never traced on one side only. A new trace is
+ * always recorded at a ratio of 1, and otherwise sampled on the low half of its trace ID as the SDK's ratio sampler
+ * does. The SDK warns about its own ratio sampler inside a parent based one, so the root sampler here is a small
+ * sampler of our own. Tail sampling
+ * runs after the spans of a file have ended, see TailSamplingSpanProcessor. It is only installed when it can drop
+ * something, so with the default settings every span is exported as before.
+ *
+ * The settings are read from system properties:
+ *      telemetry.sampleRatio       fraction of new traces that are recorded (default 1.0)
+ *      telemetry.tailKeepRatio     fraction of recorded, uneventful files that are exported (default 1.0)
+ *      telemetry.slowStageMillis   spans longer than this always keep their file (default 1000)
+ */
+
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.LinkData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import io.opentelemetry.sdk.trace.samplers.SamplingResult;
+
+import java.util.List;
+
+public class TransferSampling {
+    static double SAMPLE_RATIO = Double.parseDouble(System.getProperty("telemetry.sampleRatio", "1.0"));
+    static double TAIL_KEEP_RATIO = Double.parseDouble(System.getProperty("telemetry.tailKeepRatio", "1.0"));
+    static long SLOW_STAGE_MILLIS = Long.getLong("telemetry.slowStageMillis", 1000L);
+
+    /**
+     * Returns the head sampler, which keeps the decision of a remote parent and otherwise samples by trace ID.
+     */
+    public static Sampler sampler() {
+        if (SAMPLE_RATIO >= 1.0) {
+            return Sampler.parentBased(Sampler.alwaysOn());
+        }
+        if (SAMPLE_RATIO <= 0.0) {
+            return Sampler.parentBased(Sampler.alwaysOff());
+        }
+        return Sampler.parentBased(new RatioSampler(SAMPLE_RATIO));
+    }
+
+    /**
+     * Samples a new trace if the low half of its trace ID, taken as a magnitude, is below the ratio of the largest
+     * long.
+     */
+    static class RatioSampler implements Sampler {
+        private final double ratio;
+        private final long bound;
+
+        RatioSampler(double ratio) {
+            this.ratio = ratio;
+            this.bound = (long) (ratio * Long.MAX_VALUE);
+        }
+
+        @Override
+        public SamplingResult shouldSample(Context parentContext, String traceId, String name, SpanKind spanKind,
+                                           Attributes attributes, List<LinkData> parentLinks) {
+            long low = Long.parseUnsignedLong(traceId.substring(16), 16);
+            return Math.abs(low) < bound ? SamplingResult.recordAndSample() : SamplingResult.drop();
+        }
+
+        @Override
+        public String getDescription() {
+            return "TransferRatio{" + ratio + "}";
+        }
+    }
+
+    /**
+     * Returns the processor that batches spans to the exporter, behind the tail sampler if one is configured.
+     */
+    public static SpanProcessor spanProcessor(SpanProcessor batch) {
+        if (TAIL_KEEP_RATIO >= 1.0) {
+            return batch;
+        }
+        return new TailSamplingSpanProcessor(batch, TAIL_KEEP_RATIO, SLOW_STAGE_MILLIS);
+    }
+}
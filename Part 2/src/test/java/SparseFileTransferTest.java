@@ -0,0 +1,115 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This SparseFileTransferTest sends a sparse file larger than 2 GiB from a Client to a Server over loopback, and
+ * checks that it arrives with the same length and the same bytes in a few regions of random data, including one
+ * across the 32-bit limit and ones past it. The source file takes almost no disk space, but the Server writes the
+ * whole file, so the test needs a little over 2 GiB free in the build directory.
+ *
+ * The file is sent both ways the Client can send it: as plain chunks, and streamed through deflate and AES/CFB8 with
+ * the advanced features on. A file that is mostly zeros compresses well enough to set off the deliberate compression
+ * bug, which would corrupt it on purpose, so the bug is turned off while the test runs.
+ *
+ * The Server is given a socket already bound to a free port, so the Client can connect as soon as the Server thread
+ * is started.
+ */
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SparseFileTransferTest {
+    private static final long SIZE = (2L << 30) + 3L * Server.CHUNK_SIZE + 7;
+    private static final int REGION = 64 * 1024;
+    private static final long[] REGIONS = {0, Integer.MAX_VALUE - REGION / 2, 1L << 31 | 12345, SIZE - REGION};
+
+    private Path source;
+    private Path received;
+    private boolean advancedFeatures;
+    private double bugRatio;
+
+    @Before
+    public void setUp() throws IOException {
+        source = Files.createTempDirectory("sparse-transfer-");
+        received = Paths.get("Server_" + source.getFileName(), "sparse.bin");
+        try (RandomAccessFile file = new RandomAccessFile(source.resolve("sparse.bin").toFile(), "rw")) {
+            file.setLength(SIZE);
+            Random random = new Random(3195);
+            byte[] region = new byte[REGION];
+            for (long offset : REGIONS) {
+                random.nextBytes(region);
+                file.seek(offset);
+                file.write(region);
+            }
+        }
+
+        advancedFeatures = Server.USE_ADVANCED_FEATURES;
+        bugRatio = Client.BUG_RATIO;
+        Client.BUG_RATIO = Double.POSITIVE_INFINITY;
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Server.USE_ADVANCED_FEATURES = advancedFeatures;
+        Client.BUG_RATIO = bugRatio;
+        Files.deleteIfExists(source.resolve("sparse.bin"));
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(received);
+        Files.deleteIfExists(received.getParent());
+    }
+
+    @Test(timeout = 10 * 60 * 1000)
+    public void transfersSparseFileLargerThan2GiB() throws Exception {
+        Server.USE_ADVANCED_FEATURES = false;
+        transferAndCompare();
+    }
+
+    @Test(timeout = 10 * 60 * 1000)
+    public void transfersSparseFileLargerThan2GiBCompressedAndEncrypted() throws Exception {
+        Server.USE_ADVANCED_FEATURES = true;
+        transferAndCompare();
+    }
+
+    private void transferAndCompare() throws Exception {
+        ServerSocket serverSocket = new ServerSocket(0);
+        int port = serverSocket.getLocalPort();
+        Thread server = new Thread(() -> new Server(serverSocket), "test-server");
+        server.setDaemon(true);
+        server.start();
+
+        new Client("localhost", port, source.toString());
+
+        File file = received.toFile();
+        assertEquals(SIZE, file.length());
+        try (RandomAccessFile expected = new RandomAccessFile(source.resolve("sparse.bin").toFile(), "r");
+             RandomAccessFile actual = new RandomAccessFile(file, "r")) {
+            byte[] want = new byte[REGION];
+            byte[] got = new byte[REGION];
+            for (long offset : REGIONS) {
+                expected.seek(offset);
+                expected.readFully(want);
+                actual.seek(offset);
+                actual.readFully(got);
+                assertArrayEquals("Bytes at offset " + offset, want, got);
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * @Title COSC 3P95 Assignment 2
+ *
+ * @Author Geoffrey Jensen
+ * @Student# 7148710
+ *
+ * @Author Justin Thomas Bijoy
+ * @Student# 7123550
+ *
+ * This TailSamplingSpanProcessorTest runs the span trees of many uneventful files through two tail samplers, one
+ * standing in for the Client and one for the Server, linked the way the traceparent headers link them. Both must
+ * keep or drop the same files, so no kept half of a trace is missing its other half.
+ */
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TailSamplingSpanProcessorTest {
+    private static final int FILES = 400;
+    private static final double KEEP_RATIO = 0.3;
+
+    /**
+     * Keeps every span that reaches it.
+     */
+    private static class Collector implements SpanProcessor {
+        final List<ReadableSpan> spans = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void onStart(Context parentContext, ReadWriteSpan span) {
+        }
+
+        @Override
+        public boolean isStartRequired() {
+            return false;
+        }
+
+        @Override
+        public void onEnd(ReadableSpan span) {
+            spans.add(span);
+        }
+
+        @Override
+        public boolean isEndRequired() {
+            return true;
+        }
+
+        @Override
+        public CompletableResultCode shutdown() {
+            return CompletableResultCode.ofSuccess();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("try")
+    public void clientAndServerKeepTheSameFiles() {
+        Collector clientKept = new Collector();
+        Collector serverKept = new Collector();
+        SdkTracerProvider clientProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new TailSamplingSpanProcessor(clientKept, KEEP_RATIO, 60000))
+                .build();
+        SdkTracerProvider serverProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(new TailSamplingSpanProcessor(serverKept, KEEP_RATIO, 60000))
+                .build();
+        Tracer client = clientProvider.get("test");
+        Tracer server = serverProvider.get("test");
+
+        // The Server starts the trace with its connection span and sends it to the Client
+        Span connection = server.spanBuilder("server_file_transfer").setSpanKind(SpanKind.SERVER).startSpan();
+        Context connectionHeader = remote(connection.getSpanContext());
+
+        for (int file = 0; file < FILES; file++) {
+            Span clientFile = client.spanBuilder("send_file").setParent(connectionHeader)
+                    .setSpanKind(SpanKind.CLIENT).startSpan();
+            try (Scope ignored = clientFile.makeCurrent()) {
+                client.spanBuilder("send_data").startSpan().end();
+            }
+            clientFile.end();
+
+            Span serverFile = server.spanBuilder("receive_file").setParent(remote(clientFile.getSpanContext()))
+                    .setSpanKind(SpanKind.SERVER).startSpan();
+            try (Scope ignored = serverFile.makeCurrent()) {
+                server.spanBuilder("checksum_compare").startSpan().end();
+            }
+            serverFile.end();
+        }
+        connection.end();
+
+        Set<String> clientFiles = new TreeSet<>();
+        for (ReadableSpan span : clientKept.spans) {
+            if (span.getName().equals("send_file")) clientFiles.add(span.getSpanContext().getSpanId());
+        }
+        Set<String> serverFiles = new TreeSet<>();
+        for (ReadableSpan span : serverKept.spans) {
+            if (span.getName().equals("receive_file")) serverFiles.add(span.getParentSpanContext().getSpanId());
+        }
+
+        assertEquals(clientFiles, serverFiles);
+        assertEquals(2 * clientFiles.size(), clientKept.spans.size());
+        assertTrue("Some files should be dropped and some kept, kept " + clientFiles.size(),
+                clientFiles.size() > FILES * KEEP_RATIO / 2 && clientFiles.size() < FILES * KEEP_RATIO * 2);
+
+        clientProvider.shutdown();
+        serverProvider.shutdown();
+    }
+
+    private static Context remote(SpanContext context) {
+        return Context.root().with(Span.wrap(SpanContext.createFromRemoteParent(context.getTraceId(),
+                context.getSpanId(), context.getTraceFlags(), context.getTraceState())));
+    }
+}